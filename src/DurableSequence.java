@@ -0,0 +1,1159 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A Sequence whose changes survive a crash. Every change is appended as a
+ * record to a write-ahead log in a directory, and opening the directory again
+ * rebuilds the sequence from its latest snapshot followed by the records
+ * logged after it.
+ *
+ * Each record is framed by its length and a CRC32 of its contents, so a record
+ * torn by a crash is detected on recovery and dropped, along with anything
+ * after it. Cursor moves are logged too, but only the position before each
+ * change is kept, and it is written with that change.
+ *
+ * How long a change waits for the disk depends on the durability level. NONE
+ * hands records to the operating system in batches of BATCH_BYTES and never
+ * waits for the disk. SYNC forces the log after every change while still
+ * holding the sequence, so each change costs one force. GROUP waits for the
+ * force after letting go of the sequence, so that changes made by other
+ * threads in the meantime are written and forced along with it (group
+ * commit): a single force then acknowledges a whole batch of changes.
+ *
+ * Once the log has grown past compactionBytes, the change that noticed writes
+ * a snapshot of the whole sequence and starts a new log; the snapshot and log
+ * before it are then deleted. Changes are held up only while the contents
+ * are copied and the new log is started, not while the snapshot is written.
+ *
+ * The methods of this class are thread-safe. They synchronize on the
+ * underlying sequence, and so must a thread that uses getSequence directly.
+ * Changes made on getSequence are logged, but they are only made durable by
+ * the next change made through this class or by sync.
+ *
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public final class DurableSequence implements Closeable {
+	// ************************************************************************
+	// Invariant of the DurableSequence class:
+	// (1) For the current generation g, snapshot-g (if it has been written)
+	// holds the sequence as it was when log-g was started, and log-g holds the
+	// records of every change handed to the log since then. A snapshot or log
+	// of an older generation is only deleted once a newer snapshot is on disk.
+	// (2) Records are numbered from 1 in the order they were made. pending
+	// holds records (written, appended]; records up to written have been
+	// handed to channel, and records up to durable have been forced to disk.
+	// (3) pendingCursor is the cursor position to log before the next record,
+	// or -1 if the cursor has not moved since the last record.
+	// (4) At most one thread writes to channel at a time (it holds writeLock),
+	// and at most one thread leads a group commit at a time (flushing).
+	// ************************************************************************
+
+	/** How long a change waits for its record to reach the disk. */
+	public enum Durability {
+		/** Records are handed to the operating system but never forced. */
+		NONE,
+		/** Changes made at the same time share one force of the log. */
+		GROUP,
+		/** Every change forces the log before the next change can start. */
+		SYNC
+	}
+
+	/** The log is compacted once it is this large, unless told otherwise. */
+	public static final long DEFAULT_COMPACTION_BYTES = 64L << 20;
+
+	/** Under NONE, records are handed to the log once this many are pending. */
+	static final int BATCH_BYTES = 1 << 16;
+
+	private static final int LOG_MAGIC = 0x53514c47;
+	private static final int SNAPSHOT_MAGIC = 0x53515350;
+	private static final int LOG_HEADER_BYTES = 12;
+	private static final int RECORD_HEADER_BYTES = 8;
+
+	private static final byte INSERTED = 1;
+	private static final byte REMOVED = 2;
+	private static final byte CURSOR_MOVED = 3;
+	private static final byte ADDED_ALL = 4;
+	private static final byte CAPACITY_CHANGED = 5;
+	private static final byte REPLACED = 6;
+
+	private final Path directory;
+	private final Durability durability;
+	private final long compactionBytes;
+	private final Sequence sequence;
+	private final Recorder recorder = new Recorder();
+
+	// Guarded by recorder.
+	private ByteBuffer pending = ByteBuffer.allocate(BATCH_BYTES);
+	private ByteBuffer spare = ByteBuffer.allocate(BATCH_BYTES);
+	private final CRC32 crc = new CRC32();
+	private long appended;
+	private int pendingCursor = -1;
+
+	// Guarded by writeLock.
+	private final Object writeLock = new Object();
+	private FileChannel channel;
+	private long generation;
+	private long written;
+	private long forced;
+	private volatile long logBytes;
+	private volatile long forces;
+
+	// Guarded by commitLock.
+	private final Object commitLock = new Object();
+	private long durable;
+	private boolean flushing;
+
+	private final Object snapshotLock = new Object();
+	private final AtomicBoolean compacting = new AtomicBoolean();
+	private volatile long snapshots;
+	private volatile IOException failure;
+	private volatile boolean closed;
+
+	private DurableSequence(Path directory, Durability durability,
+			long compactionBytes, Sequence sequence, FileChannel channel,
+			long generation, long logBytes) {
+		this.directory = directory;
+		this.durability = durability;
+		this.compactionBytes = compactionBytes;
+		this.sequence = sequence;
+		this.channel = channel;
+		this.generation = generation;
+		this.logBytes = logBytes;
+		sequence.addListener(recorder);
+	}
+
+	/**
+	 * Open the durable sequence kept in a directory, compacting its log at
+	 * DEFAULT_COMPACTION_BYTES.
+	 *
+	 * @param directory
+	 *            the directory holding the snapshot and log; it is created if
+	 *            it does not exist.
+	 * @param durability
+	 *            how long each change waits for the disk.
+	 * @return the sequence as it was after the last change that reached the
+	 *         log, or an empty sequence if the directory holds none.
+	 * @exception IOException
+	 *                Indicates that the directory could not be read or
+	 *                written, or that its snapshot or log is corrupt anywhere
+	 *                but at the end of the log.
+	 */
+	public static DurableSequence open(Path directory, Durability durability)
+			throws IOException {
+		return open(directory, durability, DEFAULT_COMPACTION_BYTES);
+	}
+
+	/**
+	 * Open the durable sequence kept in a directory. The latest snapshot is
+	 * loaded and the log written after it is replayed; a torn record at the
+	 * end of the log is cut off.
+	 *
+	 * @param directory
+	 *            the directory holding the snapshot and log; it is created if
+	 *            it does not exist.
+	 * @param durability
+	 *            how long each change waits for the disk.
+	 * @param compactionBytes
+	 *            the log size at which a snapshot is taken and a new log
+	 *            started.
+	 * @return the sequence as it was after the last change that reached the
+	 *         log, or an empty sequence if the directory holds none.
+	 * @exception IllegalArgumentException
+	 *                Indicates that durability is null or compactionBytes is
+	 *                not positive.
+	 * @exception IOException
+	 *                Indicates that the directory could not be read or
+	 *                written, or that its snapshot or log is corrupt anywhere
+	 *                but at the end of the log.
+	 */
+	public static DurableSequence open(Path directory, Durability durability,
+			long compactionBytes) throws IOException {
+		if (durability == null) {
+			throw new IllegalArgumentException("durability is null");
+		}
+		if (compactionBytes <= 0) {
+			throw new IllegalArgumentException(
+					"compactionBytes is not positive: " + compactionBytes);
+		}
+		Files.createDirectories(directory);
+		deleteTemporaryFiles(directory);
+		List<Long> snapshots = generations(directory, "snapshot-");
+		List<Long> logs = generations(directory, "log-");
+
+		long base = snapshots.isEmpty() ? 0 : snapshots
+				.get(snapshots.size() - 1);
+		Sequence sequence = snapshots.isEmpty() ? new Sequence()
+				: readSnapshot(file(directory, "snapshot-", base), base);
+		long last = base;
+		long valid = -1;
+		for (int i = 0; i < logs.size(); i++) {
+			long g = logs.get(i);
+			if (g < base)
+				continue;
+			Path log = file(directory, "log-", g);
+			valid = replay(log, g, sequence);
+			last = g;
+			if (valid < Files.size(log) && i < logs.size() - 1) {
+				throw new IOException("corrupt record in " + log
+						+ " at offset " + Math.max(valid, 0));
+			}
+		}
+
+		FileChannel channel;
+		if (valid < 0) {
+			channel = createLog(directory, last);
+			valid = LOG_HEADER_BYTES;
+		} else {
+			channel = FileChannel.open(file(directory, "log-", last),
+					StandardOpenOption.WRITE);
+			channel.truncate(valid);
+			channel.position(valid);
+		}
+		deleteBefore(directory, base);
+		return new DurableSequence(directory, durability, compactionBytes,
+				sequence, channel, last, valid);
+	}
+
+	/**
+	 * @return the sequence kept durable. A thread using it must synchronize on
+	 *         it, and changes made on it are only durable after the next
+	 *         change made through this object, or sync.
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the durability level this sequence was opened with.
+	 */
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Add a new element before the current element, as Sequence.addBefore
+	 * does, and log it.
+	 *
+	 * @param value
+	 *            the string to add.
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the log could not be written; the element
+	 *                may not survive a crash, and no further change is
+	 *                accepted.
+	 */
+	public void addBefore(String value) throws IOException {
+		long record;
+		synchronized (sequence) {
+			checkOpen();
+			sequence.addBefore(value);
+			record = logged();
+		}
+		committed(record);
+	}
+
+	/**
+	 * Add a new element after the current element, as Sequence.addAfter does,
+	 * and log it.
+	 *
+	 * @param value
+	 *            the string to add.
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the log could not be written; the element
+	 *                may not survive a crash, and no further change is
+	 *                accepted.
+	 */
+	public void addAfter(String value) throws IOException {
+		long record;
+		synchronized (sequence) {
+			checkOpen();
+			sequence.addAfter(value);
+			record = logged();
+		}
+		committed(record);
+	}
+
+	/**
+	 * Append a range of strings, as Sequence.addAll does, and log them as one
+	 * record.
+	 *
+	 * @param values
+	 *            the array holding the strings to add.
+	 * @param offset
+	 *            the index in values of the first string to add.
+	 * @param length
+	 *            the number of strings to add.
+	 * @precondition None of the strings in the range is null.
+	 * @exception IndexOutOfBoundsException
+	 *                Indicates that the range does not lie within values.
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the log could not be written.
+	 */
+	public void addAll(String[] values, int offset, int length)
+			throws IOException {
+		long record;
+		synchronized (sequence) {
+			checkOpen();
+			sequence.addAll(values, offset, length);
+			record = logged();
+		}
+		committed(record);
+	}
+
+	/**
+	 * Append the contents of another sequence, as Sequence.addAll does, and
+	 * log them as one record.
+	 *
+	 * @param addend
+	 *            the sequence whose contents should be added.
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the log could not be written.
+	 */
+	public void addAll(Sequence addend) throws IOException {
+		long record;
+		synchronized (sequence) {
+			checkOpen();
+			sequence.addAll(addend);
+			record = logged();
+		}
+		committed(record);
+	}
+
+	/**
+	 * Remove the current element, as Sequence.removeCurrent does, and log it.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the log could not be written.
+	 */
+	public void removeCurrent() throws IOException {
+		long record;
+		synchronized (sequence) {
+			checkOpen();
+			sequence.removeCurrent();
+			record = logged();
+		}
+		committed(record);
+	}
+
+	/**
+	 * Reduce the capacity to the size, as Sequence.trimToSize does, and log
+	 * it.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the log could not be written.
+	 */
+	public void trimToSize() throws IOException {
+		long record;
+		synchronized (sequence) {
+			checkOpen();
+			sequence.trimToSize();
+			record = logged();
+		}
+		committed(record);
+	}
+
+	/**
+	 * Make the first element current, as Sequence.start does. The move is
+	 * written with the next change; it does not wait for the disk.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that an earlier change could not be logged.
+	 */
+	public void start() throws IOException {
+		synchronized (sequence) {
+			checkOpen();
+			sequence.start();
+		}
+	}
+
+	/**
+	 * Make the next element current, as Sequence.advance does. The move is
+	 * written with the next change; it does not wait for the disk.
+	 *
+	 * @precondition isCurrent() returns true.
+	 * @exception IllegalStateException
+	 *                Indicates that there is no current element, or that this
+	 *                sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that an earlier change could not be logged.
+	 */
+	public void advance() throws IOException {
+		synchronized (sequence) {
+			checkOpen();
+			sequence.advance();
+		}
+	}
+
+	/**
+	 * @return the current element, as Sequence.getCurrent does.
+	 */
+	public String getCurrent() {
+		synchronized (sequence) {
+			return sequence.getCurrent();
+		}
+	}
+
+	/**
+	 * @return true if there is a current element.
+	 */
+	public boolean isCurrent() {
+		synchronized (sequence) {
+			return sequence.isCurrent();
+		}
+	}
+
+	/**
+	 * @return the number of elements.
+	 */
+	public int size() {
+		synchronized (sequence) {
+			return sequence.size();
+		}
+	}
+
+	/**
+	 * Force every change logged so far, including changes made directly on
+	 * getSequence and the latest cursor position, to disk.
+	 *
+	 * @exception IOException
+	 *                Indicates that the log could not be written.
+	 */
+	public void sync() throws IOException {
+		writePending(true);
+	}
+
+	/**
+	 * Write a snapshot of the whole sequence and start a new log, deleting the
+	 * previous snapshot and log once the new snapshot is on disk. This happens
+	 * on its own once the log reaches compactionBytes; changes wait only while
+	 * the contents are copied and the new log is started.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that this sequence has been closed.
+	 * @exception IOException
+	 *                Indicates that the snapshot or the new log could not be
+	 *                written. The sequence is still recoverable from the
+	 *                previous snapshot and the logs after it.
+	 */
+	public void snapshot() throws IOException {
+		snapshot(false);
+	}
+
+	/**
+	 * Take a snapshot as snapshot() does. An automatic compaction can lose the
+	 * race with close; it then finds the sequence closed and does nothing
+	 * instead of failing the change that triggered it.
+	 */
+	private void snapshot(boolean automatic) throws IOException {
+		synchronized (snapshotLock) {
+			String[] values;
+			int capacity;
+			int cursor;
+			long next;
+			synchronized (sequence) {
+				if (automatic && closed)
+					return;
+				checkOpen();
+				synchronized (writeLock) {
+					writePending(true);
+					values = sequence.toArray();
+					capacity = sequence.getCapacity();
+					cursor = sequence.currentIndex();
+					next = generation + 1;
+					FileChannel log = createLog(directory, next);
+					channel.close();
+					channel = log;
+					generation = next;
+					logBytes = LOG_HEADER_BYTES;
+				}
+			}
+			writeSnapshot(directory, next, values, capacity, cursor);
+			deleteBefore(directory, next);
+			snapshots++;
+		}
+	}
+
+	/**
+	 * Force the log, detach from the sequence and close the log. The sequence
+	 * keeps its contents but its later changes are not logged. Closing a
+	 * closed durable sequence does nothing.
+	 *
+	 * @exception IOException
+	 *                Indicates that the log could not be forced or closed.
+	 */
+	public void close() throws IOException {
+		synchronized (sequence) {
+			if (closed)
+				return;
+			closed = true;
+			sequence.removeListener(recorder);
+			synchronized (writeLock) {
+				try {
+					if (failure == null)
+						writePending(true);
+				} finally {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes in the current log.
+	 */
+	public long getLogBytes() {
+		return logBytes;
+	}
+
+	/**
+	 * @return the number of times the log has been forced to disk.
+	 */
+	public long getForceCount() {
+		return forces;
+	}
+
+	/**
+	 * @return the number of snapshots taken since this sequence was opened.
+	 */
+	public long getSnapshotCount() {
+		return snapshots;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IllegalStateException("DurableSequence is closed.");
+		}
+		if (failure != null) {
+			throw new IOException("The log could not be written.", failure);
+		}
+	}
+
+	/**
+	 * Called holding the sequence's monitor, right after a change.
+	 *
+	 * @return the number of the change's last record; under SYNC, the record
+	 *         has been forced to disk.
+	 */
+	private long logged() throws IOException {
+		if (failure != null) {
+			throw new IOException("The log could not be written.", failure);
+		}
+		if (durability == Durability.SYNC)
+			return writePending(true);
+		synchronized (recorder) {
+			return appended;
+		}
+	}
+
+	/**
+	 * Called after letting go of the sequence: wait for the record under
+	 * GROUP, then compact the log if it has grown too large.
+	 */
+	private void committed(long record) throws IOException {
+		if (durability == Durability.GROUP)
+			awaitDurable(record);
+		long size = logBytes;
+		synchronized (recorder) {
+			size += pending.position();
+		}
+		if (size >= compactionBytes && !closed
+				&& compacting.compareAndSet(false, true)) {
+			try {
+				snapshot(true);
+			} finally {
+				compacting.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Wait until a record has been forced to disk. If no other thread is
+	 * forcing the log, this thread writes and forces everything pending,
+	 * including records made by other threads while it waited; otherwise it
+	 * waits for that thread and checks again.
+	 */
+	private void awaitDurable(long record) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				synchronized (commitLock) {
+					while (durable < record && flushing && failure == null) {
+						try {
+							commitLock.wait();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (durable >= record)
+						return;
+					if (failure != null) {
+						throw new IOException("The log could not be written.",
+								failure);
+					}
+					flushing = true;
+				}
+				try {
+					writePending(true);
+				} finally {
+					synchronized (commitLock) {
+						flushing = false;
+						commitLock.notifyAll();
+					}
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hand every pending record to the log and, if force is true, force the
+	 * log to disk.
+	 *
+	 * @return the number of the last record handed to the log.
+	 */
+	private long writePending(boolean force) throws IOException {
+		synchronized (writeLock) {
+			if (failure != null) {
+				throw new IOException("The log could not be written.", failure);
+			}
+			ByteBuffer batch;
+			long upTo;
+			synchronized (recorder) {
+				if (pendingCursor >= 0)
+					recorder.cursor();
+				batch = pending;
+				pending = spare;
+				spare = null;
+				upTo = appended;
+			}
+			batch.flip();
+			try {
+				while (batch.hasRemaining())
+					channel.write(batch);
+				logBytes += batch.limit();
+				written = upTo;
+				if (force && forced < written) {
+					channel.force(false);
+					forced = written;
+					forces++;
+				}
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			} finally {
+				batch.clear();
+				if (batch.capacity() > 4 * BATCH_BYTES)
+					batch = ByteBuffer.allocate(BATCH_BYTES);
+				synchronized (recorder) {
+					spare = batch;
+				}
+				synchronized (commitLock) {
+					if (forced > durable)
+						durable = forced;
+					commitLock.notifyAll();
+				}
+			}
+			return upTo;
+		}
+	}
+
+	/**
+	 * Turns each change to the sequence into a record in pending. Its methods
+	 * are called holding the sequence's monitor; they lock the recorder while
+	 * they touch pending.
+	 */
+	private final class Recorder implements SequenceListener {
+
+		public void inserted(Sequence s, int index, String value) {
+			byte[] bytes = utf8(value);
+			boolean full;
+			synchronized (this) {
+				int start = begin(INSERTED, 4 + length(bytes));
+				pending.putInt(index);
+				putString(bytes);
+				full = end(start);
+			}
+			handOff(full);
+		}
+
+		public void removed(Sequence s, int index, String value) {
+			boolean full;
+			synchronized (this) {
+				int start = begin(REMOVED, 4);
+				pending.putInt(index);
+				full = end(start);
+			}
+			handOff(full);
+		}
+
+		public void cursorMoved(Sequence s, int index) {
+			synchronized (this) {
+				pendingCursor = index;
+			}
+		}
+
+		public void addedAll(Sequence s, int index, String[] values,
+				int offset, int length) {
+			byte[][] bytes = new byte[length][];
+			int size = 4;
+			for (int i = 0; i < length; i++) {
+				bytes[i] = utf8(values[offset + i]);
+				size += length(bytes[i]);
+			}
+			boolean full;
+			synchronized (this) {
+				int start = begin(ADDED_ALL, size);
+				putStrings(bytes);
+				full = end(start);
+			}
+			handOff(full);
+		}
+
+		public void capacityChanged(Sequence s, int capacity) {
+			boolean full;
+			synchronized (this) {
+				int start = begin(CAPACITY_CHANGED, 4);
+				pending.putInt(capacity);
+				full = end(start);
+			}
+			handOff(full);
+		}
+
+		public void replaced(Sequence s) {
+			String[] values = s.toArray();
+			byte[][] bytes = new byte[values.length][];
+			int size = 12;
+			for (int i = 0; i < values.length; i++) {
+				bytes[i] = utf8(values[i]);
+				size += length(bytes[i]);
+			}
+			boolean full;
+			synchronized (this) {
+				pendingCursor = -1;
+				int start = begin(REPLACED, size);
+				pending.putInt(s.getCapacity());
+				pending.putInt(s.currentIndex());
+				putStrings(bytes);
+				full = end(start);
+			}
+			handOff(full);
+		}
+
+		/** Log pendingCursor as a record of its own. */
+		void cursor() {
+			int index = pendingCursor;
+			pendingCursor = -1;
+			int start = begin(CURSOR_MOVED, 4);
+			pending.putInt(index);
+			end(start);
+		}
+
+		/**
+		 * Log any pending cursor move, then make room for a record of the
+		 * given payload size (not counting its type) and write its type.
+		 *
+		 * @return the position of the record in pending.
+		 */
+		private int begin(byte type, int size) {
+			if (pendingCursor >= 0 && type != CURSOR_MOVED)
+				cursor();
+			int needed = RECORD_HEADER_BYTES + 1 + size;
+			if (pending.remaining() < needed) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(
+						2 * pending.capacity(), pending.position() + needed));
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+			int start = pending.position();
+			pending.position(start + RECORD_HEADER_BYTES);
+			pending.put(type);
+			return start;
+		}
+
+		/**
+		 * Fill in the length and checksum of the record at start.
+		 *
+		 * @return true if enough records are pending to hand them to the log
+		 *         under NONE.
+		 */
+		private boolean end(int start) {
+			int length = pending.position() - start - RECORD_HEADER_BYTES;
+			crc.reset();
+			crc.update(pending.array(), start + RECORD_HEADER_BYTES, length);
+			pending.putInt(start, length);
+			pending.putInt(start + 4, (int) crc.getValue());
+			appended++;
+			return durability == Durability.NONE
+					&& pending.position() >= BATCH_BYTES;
+		}
+
+		private void putString(byte[] bytes) {
+			if (bytes == null) {
+				pending.putInt(-1);
+			} else {
+				pending.putInt(bytes.length);
+				pending.put(bytes);
+			}
+		}
+
+		private void putStrings(byte[][] bytes) {
+			pending.putInt(bytes.length);
+			for (byte[] b : bytes)
+				putString(b);
+		}
+
+		/**
+		 * Under NONE, hand a full batch of records to the log. A failure
+		 * cannot be thrown from a listener, so it is kept and thrown by the
+		 * next change.
+		 */
+		private void handOff(boolean full) {
+			if (!full)
+				return;
+			try {
+				writePending(false);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+	private static byte[] utf8(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the number of bytes a string encoded as bytes takes in a record.
+	 */
+	private static int length(byte[] bytes) {
+		return bytes == null ? 4 : 4 + bytes.length;
+	}
+
+	/**
+	 * Redo the change recorded in a record on the sequence.
+	 */
+	private static void apply(Sequence sequence, ByteBuffer record) {
+		byte type = record.get();
+		switch (type) {
+		case INSERTED: {
+			int index = record.getInt();
+			String value = getString(record);
+			if (index < sequence.size()) {
+				sequence.moveTo(index);
+				sequence.addBefore(value);
+			} else {
+				sequence.moveTo(sequence.size());
+				sequence.addAfter(value);
+			}
+			break;
+		}
+		case REMOVED:
+			sequence.moveTo(record.getInt());
+			sequence.removeCurrent();
+			break;
+		case CURSOR_MOVED:
+			sequence.moveTo(record.getInt());
+			break;
+		case ADDED_ALL: {
+			String[] values = getStrings(record);
+			sequence.addAll(values, 0, values.length);
+			break;
+		}
+		case CAPACITY_CHANGED: {
+			int capacity = record.getInt();
+			if (capacity < sequence.getCapacity())
+				sequence.trimToSize();
+			else
+				sequence.ensureCapacity(capacity);
+			break;
+		}
+		case REPLACED: {
+			int capacity = record.getInt();
+			int cursor = record.getInt();
+			String[] values = getStrings(record);
+			sequence.release();
+			sequence.ensureCapacity(capacity);
+			sequence.addAll(values, 0, values.length);
+			sequence.moveTo(cursor);
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("unknown record type " + type);
+		}
+	}
+
+	private static String getString(ByteBuffer record) {
+		int length = record.getInt();
+		if (length < 0)
+			return null;
+		String value = new String(record.array(), record.arrayOffset()
+				+ record.position(), length, StandardCharsets.UTF_8);
+		record.position(record.position() + length);
+		return value;
+	}
+
+	private static String[] getStrings(ByteBuffer record) {
+		String[] values = new String[record.getInt()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = getString(record);
+		return values;
+	}
+
+	/**
+	 * Replay the records of a log onto the sequence, stopping at the first
+	 * record that is cut short or fails its checksum.
+	 *
+	 * @return the length of the log up to the end of the last record
+	 *         replayed, or -1 if the log does not have a complete header.
+	 */
+	private static long replay(Path log, long generation, Sequence sequence)
+			throws IOException {
+		long size = Files.size(log);
+		try (InputStream raw = Files.newInputStream(log)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					raw, BATCH_BYTES));
+			try {
+				if (in.readInt() != LOG_MAGIC || in.readLong() != generation)
+					throw new IOException(log + " is not log " + generation);
+			} catch (EOFException e) {
+				return -1;
+			}
+			long valid = LOG_HEADER_BYTES;
+			CRC32 crc = new CRC32();
+			byte[] payload = new byte[256];
+			while (true) {
+				int length;
+				int checksum;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if (length <= 0
+							|| length > size - valid - RECORD_HEADER_BYTES)
+						return valid;
+					if (payload.length < length)
+						payload = new byte[Math.max(length, 2 * payload.length)];
+					in.readFully(payload, 0, length);
+				} catch (EOFException e) {
+					return valid;
+				}
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != checksum)
+					return valid;
+				try {
+					apply(sequence, ByteBuffer.wrap(payload, 0, length));
+				} catch (BufferUnderflowException | IllegalArgumentException
+						| IndexOutOfBoundsException | IllegalStateException e) {
+					throw new IOException("unreadable record in " + log
+							+ " at offset " + valid, e);
+				}
+				valid += RECORD_HEADER_BYTES + length;
+			}
+		}
+	}
+
+	private static FileChannel createLog(Path directory, long generation)
+			throws IOException {
+		FileChannel log = FileChannel.open(file(directory, "log-", generation),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+			header.putInt(LOG_MAGIC).putLong(generation).flip();
+			while (header.hasRemaining())
+				log.write(header);
+			log.force(false);
+			syncDirectory(directory);
+			return log;
+		} catch (IOException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write a snapshot to a temporary file, force it and rename it into place,
+	 * so that a snapshot file is always complete.
+	 */
+	private static void writeSnapshot(Path directory, long generation,
+			String[] values, int capacity, int cursor) throws IOException {
+		Path temporary = directory.resolve("snapshot-" + generation + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			CheckedOutputStream checked = new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(out),
+							BATCH_BYTES), new CRC32());
+			DataOutputStream data = new DataOutputStream(checked);
+			data.writeInt(SNAPSHOT_MAGIC);
+			data.writeLong(generation);
+			data.writeInt(capacity);
+			data.writeInt(cursor);
+			data.writeInt(values.length);
+			for (String value : values)
+				writeString(data, value);
+			data.writeLong(checked.getChecksum().getValue());
+			data.flush();
+			out.force(true);
+		}
+		Files.move(temporary, file(directory, "snapshot-", generation),
+				StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(directory);
+	}
+
+	private static Sequence readSnapshot(Path snapshot, long generation)
+			throws IOException {
+		long size = Files.size(snapshot);
+		try (InputStream raw = Files.newInputStream(snapshot)) {
+			CheckedInputStream checked = new CheckedInputStream(
+					new BufferedInputStream(raw, BATCH_BYTES), new CRC32());
+			DataInputStream in = new DataInputStream(checked);
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readLong() != generation)
+				throw new IOException(snapshot + " is not snapshot "
+						+ generation);
+			int capacity = in.readInt();
+			int cursor = in.readInt();
+			int count = in.readInt();
+			if (count < 0 || count > size || capacity < count || cursor < 0
+					|| cursor > count)
+				throw new IOException("corrupt header in " + snapshot);
+			String[] values = new String[count];
+			for (int i = 0; i < count; i++)
+				values[i] = readString(in, size);
+			long expected = checked.getChecksum().getValue();
+			if (in.readLong() != expected)
+				throw new IOException("checksum mismatch in " + snapshot);
+			Sequence sequence = new Sequence(capacity);
+			sequence.addAll(values, 0, count);
+			sequence.moveTo(cursor);
+			return sequence;
+		} catch (EOFException e) {
+			throw new IOException(snapshot + " is cut short", e);
+		}
+	}
+
+	private static void writeString(DataOutput out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInput in, long limit)
+			throws IOException {
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > limit)
+			throw new IOException("corrupt string length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Path file(Path directory, String prefix, long generation) {
+		return directory.resolve(prefix + generation);
+	}
+
+	/**
+	 * @return the generations of the files in the directory named prefix
+	 *         followed by a number, in increasing order.
+	 */
+	private static List<Long> generations(Path directory, String prefix)
+			throws IOException {
+		List<Long> generations = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				prefix + "*")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					generations.add(Long.parseLong(name.substring(prefix
+							.length())));
+				} catch (NumberFormatException e) {
+					// Not one of ours, or a snapshot that was never finished.
+				}
+			}
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+
+	/** Delete the snapshots and logs older than generation. */
+	private static void deleteBefore(Path directory, long generation)
+			throws IOException {
+		for (String prefix : new String[] { "snapshot-", "log-" }) {
+			for (long g : generations(directory, prefix)) {
+				if (g < generation)
+					Files.deleteIfExists(file(directory, prefix, g));
+			}
+		}
+	}
+
+	private static void deleteTemporaryFiles(Path directory) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				"snapshot-*.tmp")) {
+			for (Path file : files)
+				Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Force a directory, so that files created or renamed in it survive a
+	 * crash. Not every platform can open a directory; there, the rename is as
+	 * durable as the platform makes it.
+	 */
+	private static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory,
+				StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Best effort, see above.
+		}
+	}
+}
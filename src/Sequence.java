@@ -1,3 +1,7 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Implementation of ADT of type Sequence. The sequence hold String objects in a
  * specific order on a partially filled array with no empty spaces in between
@@ -7,7 +11,7 @@
  * @author Nick Suarez-Canton Trueba
  * @version 02/05/2015
  */
-public class Sequence implements Cloneable {
+public class Sequence implements Cloneable, Comparable<Sequence> {
 	// ************************************************************************
 	// Invariant of the Sequence class:
 	// (1) Instance variable manyItems always represents the number of String
@@ -18,10 +22,26 @@ public class Sequence implements Cloneable {
 	// array will refer to null.
 	// (3) If there is a current element, then it lies in data[currentIndex]. If
 	// currentIndex == manyItems, then there is no currentElement.
+	// (4) If shared is true, data is also held by a snapshot and is replaced
+	// by a copy before any of its elements are changed.
 	// ************************************************************************
 	private String[] data;
 	private int manyItems;
 	private int currentIndex;
+	// Listeners notified of every change, or null when there are none. The
+	// array is replaced, never modified, when listeners are added or removed.
+	private SequenceListener[] listeners;
+	private SequenceChangeFeed changeFeed;
+	// True while data is also held by a snapshot taken for a publisher. The
+	// array must then be copied before it is changed in place.
+	private boolean shared;
+	// Pool that inserted strings are interned through, or null.
+	private StringPool internPool;
+	// Pool that backing arrays are borrowed from and returned to, or null.
+	private SequenceArrayPool arrayPool;
+	// Bytes accounted to this sequence by SequenceMemory, or null if it was
+	// created while accounting was off.
+	private SequenceMemory.Account memoryAccount;
 
 	/**
 	 * Initialize an empty sequence with an initial capacity of 10. Note that
@@ -36,6 +56,7 @@ public class Sequence implements Cloneable {
 		final int INITIAL_CAPACITY = 10;
 		manyItems = 0;
 		currentIndex = manyItems;
+		openAccount(INITIAL_CAPACITY);
 		data = new String[INITIAL_CAPACITY];
 	}
 
@@ -58,9 +79,68 @@ public class Sequence implements Cloneable {
 		}
 		manyItems = 0;
 		currentIndex = manyItems;
+		openAccount(initialCapacity);
 		data = new String[initialCapacity];
 	}
 
+	/**
+	 * Initialize an empty sequence with a specified initial capacity whose
+	 * backing arrays are borrowed from, and returned to, an array pool. See
+	 * setArrayPool.
+	 * 
+	 * @param initialCapacity
+	 *            the initial capacity of this sequence
+	 * @param pool
+	 *            the pool to borrow arrays from.
+	 * @precondition initialCapacity is non-negative.
+	 * @postcondition This sequence is empty and has the given initial capacity.
+	 * @exception IllegalArgumentException
+	 *                Indicates that initialCapacity is negative.
+	 **/
+	public Sequence(int initialCapacity, SequenceArrayPool pool) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity is negative: "
+					+ initialCapacity);
+		}
+		manyItems = 0;
+		currentIndex = manyItems;
+		arrayPool = pool;
+		openAccount(initialCapacity);
+		data = newArray(initialCapacity);
+	}
+
+	/**
+	 * Initialize a sequence that takes over an array already holding its
+	 * elements. The first element, if any, is the current element.
+	 * 
+	 * @param data
+	 *            the array to use, whose elements are not copied.
+	 * @param manyItems
+	 *            the number of elements in data.
+	 * @param reserved
+	 *            the bytes set aside for this sequence with
+	 *            SequenceMemory.reserveLoad before data was allocated; its
+	 *            account takes them over.
+	 * @precondition data[0] through data[manyItems - 1] are not null and the
+	 *               rest of data is null. The caller no longer uses data.
+	 * @exception IllegalStateException
+	 *                Indicates that the sequence retains more than was
+	 *                reserved and the difference exceeds the memory budget.
+	 */
+	Sequence(String[] data, int manyItems, long reserved) {
+		this.data = data;
+		this.manyItems = manyItems;
+		currentIndex = 0;
+		memoryAccount = SequenceMemory.open(this);
+		if (memoryAccount == null) {
+			SequenceMemory.unreserve(reserved);
+		} else {
+			SequenceMemory.charge(memoryAccount, SequenceMemory
+					.arrayBytes(data.length), countsPayloads() ? SequenceMemory
+					.stringBytes(data, 0, manyItems) : 0, reserved);
+		}
+	}
+
 	/**
 	 * Adds a string to the sequence in the location before the current element.
 	 * If the sequence has no current element, the string is added to the
@@ -82,16 +162,27 @@ public class Sequence implements Cloneable {
 	 *                new current element of this sequence.
 	 */
 	public void addBefore(String value) {
+		if (internPool != null)
+			value = internPool.intern(value);
 		if (manyItems == data.length) {
 			ensureCapacity(manyItems * 2 + 1);
 		}
+		if (countsPayloads())
+			SequenceMemory.charge(memoryAccount, 0,
+					SequenceMemory.stringBytes(value));
+		if (shared)
+			unshare();
 		if (!isCurrent())
 			currentIndex = 0;
+		if (SequenceMetrics.enabled)
+			SequenceMetrics.shifted(manyItems - currentIndex);
 		for (int i = manyItems; i > currentIndex; i--) {
 			data[i] = data[i - 1];
 		}
 		data[currentIndex] = value;
 		manyItems++;
+		if (listeners != null)
+			fireInserted(currentIndex, value);
 	}
 
 	/**
@@ -108,9 +199,16 @@ public class Sequence implements Cloneable {
 	 *            the string to add.
 	 */
 	public void addAfter(String value) {
+		if (internPool != null)
+			value = internPool.intern(value);
 		if (manyItems == data.length) {
 			ensureCapacity(manyItems * 2 + 1);
 		}
+		if (countsPayloads())
+			SequenceMemory.charge(memoryAccount, 0,
+					SequenceMemory.stringBytes(value));
+		if (shared)
+			unshare();
 
 		if (!isCurrent())
 			currentIndex = manyItems;
@@ -118,12 +216,15 @@ public class Sequence implements Cloneable {
 		else
 			currentIndex++;
 
+		if (SequenceMetrics.enabled)
+			SequenceMetrics.shifted(manyItems - currentIndex);
 		for (int i = manyItems; i > currentIndex; i--)
 			data[i] = data[i - 1];
 
 		data[currentIndex] = value;
 		manyItems++;
-
+		if (listeners != null)
+			fireInserted(currentIndex, value);
 	}
 
 	/**
@@ -138,8 +239,61 @@ public class Sequence implements Cloneable {
 	 */
 	public void addAll(Sequence addend) {
 		ensureCapacity(manyItems + addend.size());
+		if (countsPayloads())
+			SequenceMemory.charge(memoryAccount, 0,
+					SequenceMemory.stringBytes(addend.data, 0, addend.manyItems));
+		if (shared)
+			unshare();
+		int index = manyItems;
+		int length = addend.manyItems;
 		System.arraycopy(addend.data, 0, data, manyItems, addend.size());
 		manyItems += addend.manyItems;
+		if (listeners != null)
+			fireAddedAll(index, addend.data, 0, length);
+	}
+
+	/**
+	 * Places a range of strings from an array at the end of this sequence. The
+	 * capacity is grown at most once and the strings are copied in a single
+	 * bulk copy, so this is the cheapest way to append many strings at once.
+	 *
+	 * As with addAll(Sequence), the current element is not changed.
+	 *
+	 * @param values
+	 *            the array holding the strings to add.
+	 * @param offset
+	 *            the index in values of the first string to add.
+	 * @param length
+	 *            the number of strings to add.
+	 * @precondition None of the strings in the range is null.
+	 * @exception IndexOutOfBoundsException
+	 *                Indicates that the range does not lie within values.
+	 */
+	public void addAll(String[] values, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > values.length - length) {
+			throw new IndexOutOfBoundsException("range [" + offset + ", "
+					+ offset + " + " + length + ") outside array of length "
+					+ values.length);
+		}
+		if (manyItems + length > data.length) {
+			ensureCapacity(Math.max(manyItems + length, manyItems * 2 + 1));
+		}
+		if (countsPayloads())
+			SequenceMemory.charge(memoryAccount, 0,
+					SequenceMemory.stringBytes(values, offset, offset + length));
+		if (shared)
+			unshare();
+		int index = manyItems;
+		System.arraycopy(values, offset, data, manyItems, length);
+		if (internPool != null) {
+			for (int i = index; i < index + length; i++)
+				data[i] = internPool.intern(data[i]);
+			values = data;
+			offset = index;
+		}
+		manyItems += length;
+		if (listeners != null)
+			fireAddedAll(index, values, offset, length);
 	}
 
 	/**
@@ -156,6 +310,8 @@ public class Sequence implements Cloneable {
 			currentIndex++;
 		else
 			throw new IllegalStateException("There is no current element.");
+		if (listeners != null)
+			fireCursorMoved();
 	}
 
 	/**
@@ -165,6 +321,8 @@ public class Sequence implements Cloneable {
 	 * @return the copy of this sequence.
 	 */
 	public Sequence clone() {
+		boolean metered = SequenceMetrics.enabled;
+		long start = metered ? System.nanoTime() : 0;
 		Sequence answer;
 		try {
 			answer = (Sequence) super.clone();
@@ -172,7 +330,17 @@ public class Sequence implements Cloneable {
 			throw new RuntimeException(
 					"This class does not implement Cloneable.");
 		}
-		answer.data = data.clone();
+		answer.openAccount(data.length);
+		if (answer.countsPayloads())
+			SequenceMemory.charge(answer.memoryAccount, 0,
+					SequenceMemory.stringBytes(data, 0, manyItems));
+		answer.data = newArray(data.length);
+		System.arraycopy(data, 0, answer.data, 0, manyItems);
+		answer.shared = false;
+		answer.listeners = null;
+		answer.changeFeed = null;
+		if (metered)
+			SequenceMetrics.cloned(manyItems, start);
 		return answer;
 	}
 
@@ -191,19 +359,97 @@ public class Sequence implements Cloneable {
 	 *            the sequence whose elements should come second
 	 */
 	public static Sequence concatenation(Sequence s1, Sequence s2) {
+		boolean metered = SequenceMetrics.enabled;
+		long start = metered ? System.nanoTime() : 0;
 		Sequence concatenated = new Sequence(s1.getCapacity()
-				+ s2.getCapacity());
+				+ s2.getCapacity(), s1.arrayPool);
 
 		System.arraycopy(s1.data, 0, concatenated.data, 0, s1.manyItems);
 		System.arraycopy(s2.data, 0, concatenated.data, s1.manyItems,
 				s2.manyItems);
 
+		if (concatenated.countsPayloads())
+			SequenceMemory.charge(concatenated.memoryAccount, 0,
+					SequenceMemory.stringBytes(s1.data, 0, s1.manyItems)
+							+ SequenceMemory.stringBytes(s2.data, 0,
+									s2.manyItems));
 		concatenated.manyItems = s1.manyItems + s2.manyItems;
 		concatenated.currentIndex = concatenated.manyItems;
+		if (metered)
+			SequenceMetrics.concatenated(concatenated.manyItems, start);
+		if (s1.listeners != null)
+			s1.fireConcatenated(s1, s2, concatenated);
+		if (s2.listeners != null)
+			s2.fireConcatenated(s1, s2, concatenated);
 		return concatenated;
 
 	}
 
+	/**
+	 * Compute a patch that turns one sequence into another. Applying the patch
+	 * to a sequence equal to source makes it equal to target, including the
+	 * current element.
+	 * 
+	 * Common leading and trailing elements are skipped in linear time and only
+	 * the section in between is diffed, so a few edits to a large sequence
+	 * produce a patch of a few hunks.
+	 * 
+	 * @param source
+	 *            the sequence the patch will be applied to.
+	 * @param target
+	 *            the sequence the patch should produce.
+	 * @return the patch.
+	 */
+	public static SequencePatch diff(Sequence source, Sequence target) {
+		return SequencePatch.diff(source.data, source.manyItems, target.data,
+				target.manyItems, target.currentIndex);
+	}
+
+	/**
+	 * Apply a patch computed by diff, replacing the contents and current
+	 * element of this sequence with those of the patch's target in a single
+	 * pass. The capacity is kept unless the target needs more room.
+	 * 
+	 * @param patch
+	 *            the patch to apply.
+	 * @precondition This sequence equals the source the patch was computed
+	 *               from.
+	 * @exception IllegalArgumentException
+	 *                Indicates that the size of this sequence does not match
+	 *                the size of the patch's source.
+	 */
+	public void apply(SequencePatch patch) {
+		if (patch.getSourceSize() != manyItems) {
+			throw new IllegalArgumentException("patch expects "
+					+ patch.getSourceSize() + " elements but sequence has "
+					+ manyItems);
+		}
+		int capacity = Math.max(data.length, patch.getTargetSize());
+		accountArray(capacity);
+		String[] patched = newArray(capacity);
+		patch.applyTo(data, patched);
+		if (countsPayloads()) {
+			try {
+				SequenceMemory.charge(memoryAccount, 0,
+						SequenceMemory.stringBytes(patched, 0,
+								patch.getTargetSize())
+								- memoryAccount.payloadBytes);
+			} catch (IllegalStateException e) {
+				// Not recycle: shared and manyItems describe data, not patched.
+				accountArray(data.length);
+				if (arrayPool != null)
+					arrayPool.release(patched, patch.getTargetSize());
+				throw e;
+			}
+		}
+		recycle(data);
+		data = patched;
+		manyItems = patch.getTargetSize();
+		currentIndex = patch.getTargetCursor();
+		if (listeners != null)
+			fireReplaced();
+	}
+
 	/**
 	 * Change the current capacity of this sequence. The sequence's capacity
 	 * will be changed to be at least a minimum capacity.
@@ -217,9 +463,17 @@ public class Sequence implements Cloneable {
 	public void ensureCapacity(int minCapacity) {
 
 		if (data.length < minCapacity) {
-			String[] biggerArray = new String[minCapacity];
+			boolean metered = SequenceMetrics.enabled;
+			long start = metered ? System.nanoTime() : 0;
+			accountArray(minCapacity);
+			String[] biggerArray = newArray(minCapacity);
 			System.arraycopy(data, 0, biggerArray, 0, manyItems);
+			recycle(data);
 			data = biggerArray;
+			if (metered)
+				SequenceMetrics.resized(manyItems, start);
+			if (listeners != null)
+				fireCapacityChanged();
 		}
 
 	}
@@ -255,7 +509,7 @@ public class Sequence implements Cloneable {
 	 * @return true if and only if the sequence has a current element.
 	 */
 	public boolean isCurrent() {
-		return data[currentIndex] != null;
+		return currentIndex < manyItems;
 	}
 
 	/**
@@ -269,11 +523,21 @@ public class Sequence implements Cloneable {
 	public void removeCurrent() {
 		if (isCurrent()) {
 
+			if (shared)
+				unshare();
+			String removed = data[currentIndex];
+			if (SequenceMetrics.enabled)
+				SequenceMetrics.shifted(manyItems - 1 - currentIndex);
 			for (int i = currentIndex; i < manyItems - 1; i++) {
 				data[i] = data[i + 1];
 			}
 			manyItems--;
 			data[manyItems] = null;
+			if (countsPayloads())
+				SequenceMemory.charge(memoryAccount, 0,
+						-SequenceMemory.stringBytes(removed));
+			if (listeners != null)
+				fireRemoved(currentIndex, removed);
 		}
 
 	}
@@ -291,6 +555,8 @@ public class Sequence implements Cloneable {
 	 */
 	public void start() {
 		currentIndex = 0;
+		if (listeners != null)
+			fireCursorMoved();
 	}
 
 	/**
@@ -298,9 +564,369 @@ public class Sequence implements Cloneable {
 	 * to store only the elements currently stored.
 	 */
 	public void trimToSize() {
-		String[] trimmed = new String[manyItems];
+		boolean metered = SequenceMetrics.enabled;
+		long start = metered ? System.nanoTime() : 0;
+		accountArray(manyItems);
+		String[] trimmed = newArray(manyItems);
 		System.arraycopy(data, 0, trimmed, 0, manyItems);
+		recycle(data);
 		data = trimmed;
+		if (metered)
+			SequenceMetrics.trimmed(manyItems, start);
+		if (listeners != null)
+			fireCapacityChanged();
+	}
+
+	/**
+	 * Route the strings added by addBefore, addAfter and addAll(String[], int,
+	 * int) through a pool, so that equal strings share one instance. Strings
+	 * already in the sequence are left alone; see deduplicate. The pool is kept
+	 * by clones.
+	 * 
+	 * @param pool
+	 *            the pool to use, or null to stop interning.
+	 */
+	public void setInternPool(StringPool pool) {
+		internPool = pool;
+	}
+
+	/**
+	 * @return the pool set with setInternPool, or null if there is none.
+	 */
+	public StringPool getInternPool() {
+		return internPool;
+	}
+
+	/**
+	 * Make equal elements of this sequence share one String instance, so that
+	 * the duplicates can be garbage collected. The intern pool is used if one
+	 * is set; otherwise duplicates are found with a temporary map that is
+	 * dropped when this method returns. The contents, as seen by equals, do
+	 * not change.
+	 * 
+	 * @return the number of elements replaced by a shared instance.
+	 */
+	public int deduplicate() {
+		// Replacing an element with an equal string is invisible to readers,
+		// so a snapshot sharing data does not need its own copy.
+		int replaced = 0;
+		Map<String, String> seen = internPool == null ? new HashMap<String, String>()
+				: null;
+		for (int i = 0; i < manyItems; i++) {
+			String canonical;
+			if (internPool != null) {
+				canonical = internPool.intern(data[i]);
+			} else {
+				canonical = seen.get(data[i]);
+				if (canonical == null) {
+					seen.put(data[i], data[i]);
+					canonical = data[i];
+				}
+			}
+			if (canonical != data[i]) {
+				data[i] = canonical;
+				replaced++;
+			}
+		}
+		return replaced;
+	}
+
+	/**
+	 * Borrow backing arrays from, and return them to, a pool from now on:
+	 * growing, trimming, cloning and concatenating take their new array from
+	 * the pool, and the array they replace goes back to it. Clones and
+	 * concatenations use the same pool.
+	 * 
+	 * @param pool
+	 *            the pool to use, or null to allocate arrays normally.
+	 */
+	public void setArrayPool(SequenceArrayPool pool) {
+		arrayPool = pool;
+	}
+
+	/**
+	 * Empty this sequence and give its backing array back to the array pool,
+	 * leaving it with capacity 0. The sequence can still be used afterwards.
+	 * Use this when a sequence is done with, so that the next sequence can
+	 * reuse its array.
+	 * 
+	 * @postcondition This sequence is empty and has capacity 0.
+	 */
+	public void release() {
+		if (countsPayloads())
+			SequenceMemory.charge(memoryAccount, 0, -memoryAccount.payloadBytes);
+		accountArray(0);
+		recycle(data);
+		data = SequenceArrayPool.EMPTY;
+		manyItems = 0;
+		currentIndex = 0;
+		if (listeners != null)
+			fireReplaced();
+	}
+
+	/**
+	 * Attach a listener that is told about every change made to this sequence
+	 * from now on. Listeners are not copied by clone or concatenation, but
+	 * they are told about a concatenation and can attach to its result.
+	 * 
+	 * @param listener
+	 *            the listener to attach.
+	 */
+	public void addListener(SequenceListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener is null");
+		}
+		int count = listeners == null ? 0 : listeners.length;
+		SequenceListener[] bigger = new SequenceListener[count + 1];
+		if (count > 0)
+			System.arraycopy(listeners, 0, bigger, 0, count);
+		bigger[count] = listener;
+		listeners = bigger;
+	}
+
+	/**
+	 * Detach a listener attached with addListener. Does nothing if the
+	 * listener is not attached.
+	 * 
+	 * @param listener
+	 *            the listener to detach.
+	 */
+	public void removeListener(SequenceListener listener) {
+		if (listeners == null)
+			return;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				if (listeners.length == 1) {
+					listeners = null;
+				} else {
+					SequenceListener[] smaller = new SequenceListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, smaller, 0, i);
+					System.arraycopy(listeners, i + 1, smaller, i,
+							smaller.length - i);
+					listeners = smaller;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the change feed of this sequence, creating and attaching it on first
+	 * use. Until it is asked for, changes cost nothing beyond a null check;
+	 * while it has no subscribers, it records nothing.
+	 * 
+	 * @return the change feed of this sequence.
+	 */
+	public SequenceChangeFeed changeFeed() {
+		if (changeFeed == null || changeFeed.isClosed()) {
+			changeFeed = new SequenceChangeFeed(this,
+					SequenceChangeFeed.DEFAULT_BATCH_SIZE);
+		}
+		return changeFeed;
+	}
+
+	/**
+	 * Create a publisher that streams the elements of this sequence, one by
+	 * one, as they are at the time of this call. The sequence can be changed
+	 * freely while the elements are streamed; taking the snapshot copies
+	 * nothing, and the sequence copies its array the first time it is changed
+	 * afterwards.
+	 * 
+	 * The publisher streams its snapshot to a single subscriber and drops it
+	 * as soon as the subscriber has received every element or cancels.
+	 * 
+	 * @return a publisher of the elements of this sequence.
+	 */
+	public SequenceFlow.Publisher<String> publisher() {
+		shared = true;
+		return SequencePublisher.elements(data, manyItems);
+	}
+
+	/**
+	 * Create a publisher that streams the elements of this sequence, as they
+	 * are at the time of this call, in lists of chunkSize elements. The last
+	 * list may be shorter. See publisher() for how the snapshot is kept.
+	 * 
+	 * @param chunkSize
+	 *            the number of elements in each list.
+	 * @return a publisher of lists of elements of this sequence.
+	 * @exception IllegalArgumentException
+	 *                Indicates that chunkSize is not positive.
+	 */
+	public SequenceFlow.Publisher<List<String>> publisher(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize is not positive: "
+					+ chunkSize);
+		}
+		shared = true;
+		return SequencePublisher.chunks(data, manyItems, chunkSize);
+	}
+
+	/**
+	 * Give this sequence its own copy of data, so that a snapshot sharing the
+	 * old array does not see the changes about to be made. The snapshot keeps
+	 * the old array alive, so the copy is charged on top of it; the charge is
+	 * settled the next time the backing array is replaced or released.
+	 */
+	private void unshare() {
+		if (memoryAccount != null)
+			SequenceMemory.charge(memoryAccount,
+					SequenceMemory.arrayBytes(data.length), 0);
+		String[] copy = newArray(data.length);
+		System.arraycopy(data, 0, copy, 0, manyItems);
+		data = copy;
+		shared = false;
+	}
+
+	/**
+	 * @return the estimated number of bytes retained by this sequence: its
+	 *         backing array and, if SequenceMemory counted payloads when this
+	 *         sequence was created, its elements. Sequences created while
+	 *         accounting was off report their backing array only.
+	 */
+	public long getRetainedBytes() {
+		if (memoryAccount == null)
+			return SequenceMemory.arrayBytes(data.length);
+		return memoryAccount.total();
+	}
+
+	/**
+	 * Open a SequenceMemory account for this new sequence if accounting is on,
+	 * charging it for a backing array of the given capacity.
+	 */
+	private void openAccount(int capacity) {
+		memoryAccount = SequenceMemory.open(this);
+		if (memoryAccount != null)
+			accountArray(capacity);
+	}
+
+	/**
+	 * Charge this sequence's account for replacing its backing array with one
+	 * of the given length. Called before the new array is allocated, so that
+	 * growth past the memory budget fails without changing anything.
+	 */
+	private void accountArray(int length) {
+		if (memoryAccount != null)
+			SequenceMemory.charge(memoryAccount,
+					SequenceMemory.arrayBytes(length)
+							- memoryAccount.arrayBytes, 0);
+	}
+
+	private boolean countsPayloads() {
+		return memoryAccount != null && memoryAccount.countPayloads;
+	}
+
+	/**
+	 * @return an array of the given length holding only nulls, borrowed from
+	 *         the array pool if there is one.
+	 */
+	private String[] newArray(int length) {
+		return arrayPool == null ? new String[length] : arrayPool
+				.borrow(length);
+	}
+
+	/**
+	 * Stop using an array that data is about to stop referring to. It is
+	 * returned to the array pool unless a snapshot still holds it. Must be
+	 * called while manyItems still describes it.
+	 */
+	private void recycle(String[] old) {
+		if (shared)
+			shared = false;
+		else if (arrayPool != null)
+			arrayPool.release(old, manyItems);
+	}
+
+	/**
+	 * @return a new array holding the elements of this sequence, in order.
+	 */
+	String[] toArray() {
+		String[] copy = new String[manyItems];
+		System.arraycopy(data, 0, copy, 0, manyItems);
+		return copy;
+	}
+
+	/**
+	 * @param type
+	 *            the class of the listener to look for.
+	 * @return the first attached listener of the given class, or null if none
+	 *         is attached.
+	 */
+	<T extends SequenceListener> T listener(Class<T> type) {
+		if (listeners != null) {
+			for (SequenceListener listener : listeners) {
+				if (type.isInstance(listener))
+					return type.cast(listener);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param index
+	 *            an index smaller than size().
+	 * @return the element at index.
+	 */
+	String elementAt(int index) {
+		return data[index];
+	}
+
+	/**
+	 * Make the element at index the current element.
+	 *
+	 * @param index
+	 *            an index no larger than size(); size() leaves the sequence
+	 *            without a current element.
+	 */
+	void moveTo(int index) {
+		currentIndex = index;
+		if (listeners != null)
+			fireCursorMoved();
+	}
+
+	/**
+	 * @return the index of the current element, equal to size() if there is
+	 *         none.
+	 */
+	int currentIndex() {
+		return currentIndex;
+	}
+
+	private void fireInserted(int index, String value) {
+		for (SequenceListener listener : listeners)
+			listener.inserted(this, index, value);
+	}
+
+	private void fireRemoved(int index, String value) {
+		for (SequenceListener listener : listeners)
+			listener.removed(this, index, value);
+	}
+
+	private void fireCursorMoved() {
+		for (SequenceListener listener : listeners)
+			listener.cursorMoved(this, currentIndex);
+	}
+
+	private void fireAddedAll(int index, String[] values, int offset,
+			int length) {
+		for (SequenceListener listener : listeners)
+			listener.addedAll(this, index, values, offset, length);
+	}
+
+	private void fireCapacityChanged() {
+		for (SequenceListener listener : listeners)
+			listener.capacityChanged(this, data.length);
+	}
+
+	private void fireReplaced() {
+		for (SequenceListener listener : listeners)
+			listener.replaced(this);
+	}
+
+	private void fireConcatenated(Sequence first, Sequence second,
+			Sequence result) {
+		for (SequenceListener listener : listeners)
+			listener.concatenated(first, second, result);
 	}
 
 	/**
@@ -317,22 +943,24 @@ public class Sequence implements Cloneable {
 	 * @return a string representation of this sequence.
 	 */
 	public String toString() {
-		String sequence = new String("{");
-
-		for (int i = 0; i < data.length; i++) {
-			if (i != currentIndex && data[i] != null) {
-				if (i != manyItems - 1)
-					sequence = sequence.concat(data[i] + ", ");
-				else
-					sequence = sequence.concat(data[i]);
-			} else if (i == currentIndex && data[i] != null) {
-				if (i != manyItems - 1)
-					sequence = sequence.concat(">" + data[i] + ", ");
-				else
-					sequence = sequence.concat(">" + data[i]);
-			}
+		boolean metered = SequenceMetrics.enabled;
+		long start = metered ? System.nanoTime() : 0;
+		// A single builder keeps printing linear in the output length;
+		// concatenating onto a String copied the whole prefix per element.
+		StringBuilder builder = new StringBuilder(
+				16 + Math.min(manyItems, 1 << 16) * 8);
+		builder.append('{');
+		for (int i = 0; i < manyItems; i++) {
+			if (i == currentIndex)
+				builder.append('>');
+			builder.append(data[i]);
+			if (i != manyItems - 1)
+				builder.append(", ");
 		}
-		sequence = sequence.concat("} (capacity = " + getCapacity() + ")");
+		builder.append("} (capacity = ").append(getCapacity()).append(')');
+		String sequence = builder.toString();
+		if (metered)
+			SequenceMetrics.printed(sequence.length(), start);
 		return sequence;
 	}
 
@@ -346,20 +974,109 @@ public class Sequence implements Cloneable {
 	 * @return true iff the other sequence is equal to this one.
 	 */
 	public boolean equals(Sequence other) {
-		if (this.manyItems == 0 && other.manyItems == 0)
+		if (other == this)
 			return true;
-		else if (currentIndex == other.currentIndex) {
-			int count = 0;
-			for (int index = 0; index < manyItems; index++) {
-				if (data[index].equals(other.data[index])) {
-					count++;
-					if (count == manyItems) {
-						return true;
-					}
-				} else
-					return false;
-			}
+		if (manyItems != other.manyItems || currentIndex != other.currentIndex)
+			return false;
+		return prefixLength(data, other.data, manyItems) == manyItems;
+	}
+
+	/**
+	 * Compares the elements of this sequence with those of another
+	 * lexicographically: at the first index where they differ, the sequence
+	 * with the smaller element (by String.compareTo) comes first; if one
+	 * sequence is a prefix of the other, the shorter one comes first. Sequences
+	 * with the same elements are ordered by the index of their current
+	 * element, so that compareTo returns 0 exactly when equals returns true.
+	 * 
+	 * @param other
+	 *            the sequence to compare with.
+	 * @return a negative number, zero or a positive number as this sequence
+	 *         comes before, is equal to, or comes after other.
+	 */
+	public int compareTo(Sequence other) {
+		if (other == this)
+			return 0;
+		int limit = Math.min(manyItems, other.manyItems);
+		int common = prefixLength(data, other.data, limit);
+		if (common < limit)
+			return data[common].compareTo(other.data[common]);
+		if (manyItems != other.manyItems)
+			return manyItems < other.manyItems ? -1 : 1;
+		return Integer.compare(currentIndex, other.currentIndex);
+	}
+
+	/**
+	 * Find the first index at which this sequence and another hold different
+	 * elements. The current element is not compared.
+	 * 
+	 * @param other
+	 *            the sequence to compare with.
+	 * @return the first index at which the elements differ, the size of the
+	 *         shorter sequence if it is a prefix of the longer one, or -1 if
+	 *         both hold the same elements.
+	 */
+	public int mismatch(Sequence other) {
+		int limit = Math.min(manyItems, other.manyItems);
+		int common = other == this ? limit : prefixLength(data, other.data,
+				limit);
+		if (common == limit && manyItems == other.manyItems)
+			return -1;
+		return common;
+	}
+
+	/**
+	 * @param other
+	 *            the sequence to compare with.
+	 * @return the number of leading elements this sequence and other have in
+	 *         common.
+	 */
+	public int commonPrefixLength(Sequence other) {
+		int limit = Math.min(manyItems, other.manyItems);
+		return other == this ? limit : prefixLength(data, other.data, limit);
+	}
+
+	/**
+	 * @param other
+	 *            the sequence to compare with.
+	 * @return the number of trailing elements this sequence and other have in
+	 *         common.
+	 */
+	public int commonSuffixLength(Sequence other) {
+		int limit = Math.min(manyItems, other.manyItems);
+		return other == this ? limit : suffixLength(data, manyItems,
+				other.data, other.manyItems, limit);
+	}
+
+	/**
+	 * @return the number of leading elements, up to limit, that a and b have
+	 *         in common. Identical references are not compared with equals,
+	 *         so where both arrays hold the same String instances, as a clone
+	 *         and its original do, each element costs only a reference
+	 *         comparison.
+	 */
+	static int prefixLength(String[] a, String[] b, int limit) {
+		int i = 0;
+		while (i < limit && (a[i] == b[i] || a[i].equals(b[i])))
+			i++;
+		return i;
+	}
+
+	/**
+	 * @return the number of trailing elements, up to limit, that a[0, aSize)
+	 *         and b[0, bSize) have in common. As in prefixLength, identical
+	 *         references are not compared with equals.
+	 */
+	static int suffixLength(String[] a, int aSize, String[] b, int bSize,
+			int limit) {
+		int i = 0;
+		while (i < limit) {
+			String x = a[aSize - 1 - i];
+			String y = b[bSize - 1 - i];
+			if (x != y && !x.equals(y))
+				break;
+			i++;
 		}
-		return false;
+		return i;
 	}
 }
\ No newline at end of file
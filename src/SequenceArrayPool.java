@@ -0,0 +1,204 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of String arrays that sequences borrow their backing arrays from and
+ * return them to, so that growing, trimming, cloning and discarding many
+ * short-lived sequences does not allocate a fresh array every time. A
+ * sequence uses a pool when it is created with one or given one with
+ * Sequence.setArrayPool, and returns its array with Sequence.release.
+ * 
+ * Arrays are pooled by exact length, since a sequence's capacity is the length
+ * of its array. Sequences grow along the same lengths (n, 2n + 1, 4n + 3 and so
+ * on), so short-lived sequences created alike reuse each other's arrays. Each
+ * thread keeps a few arrays of its own, which it takes back without locking;
+ * the rest are kept in a shared pool.
+ * 
+ * Returned arrays are cleared so that the pool never keeps strings alive. The
+ * shared pool holds at most maxPooledSlots array slots. Each thread's cache
+ * is bounded on its own, by THREAD_CACHE_SIZE arrays and by THREAD_CACHE_SLOTS
+ * or maxPooledSlots slots, whichever is smaller, and goes away with its
+ * thread, so threads that come and go never use up the shared pool. Arrays
+ * returned beyond these bounds are left to the garbage collector.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class SequenceArrayPool {
+	// ************************************************************************
+	// Invariant of the SequenceArrayPool class:
+	// (1) Every pooled array, whether in a thread's cache or in shared, holds
+	// only nulls and has a non-zero length.
+	// (2) pooledSlots is the total length of the arrays in shared and never
+	// exceeds maxPooledSlots once a release has finished.
+	// (3) A thread cache's slots is the total length of its arrays and never
+	// exceeds threadCacheSlots.
+	// ************************************************************************
+	static final String[] EMPTY = new String[0];
+	static final int THREAD_CACHE_SIZE = 4;
+	static final int THREAD_CACHE_SLOTS = 1 << 14;
+
+	private final long maxPooledSlots;
+	private final long threadCacheSlots;
+	private final AtomicLong pooledSlots = new AtomicLong();
+	// Arrays by length; guarded by the pool's monitor.
+	private final Map<Integer, ArrayDeque<String[]>> shared = new HashMap<Integer, ArrayDeque<String[]>>();
+	private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+		protected ThreadCache initialValue() {
+			return new ThreadCache();
+		}
+	};
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Initialize an empty pool.
+	 * 
+	 * @param maxPooledSlots
+	 *            the largest total length of the arrays the pool keeps. Each
+	 *            slot is one reference, 4 or 8 bytes depending on the JVM.
+	 * @exception IllegalArgumentException
+	 *                Indicates that maxPooledSlots is negative.
+	 */
+	public SequenceArrayPool(long maxPooledSlots) {
+		if (maxPooledSlots < 0) {
+			throw new IllegalArgumentException("maxPooledSlots is negative: "
+					+ maxPooledSlots);
+		}
+		this.maxPooledSlots = maxPooledSlots;
+		this.threadCacheSlots = Math.min(maxPooledSlots, THREAD_CACHE_SLOTS);
+	}
+
+	/**
+	 * Get an array of exactly the given length holding only nulls, reusing a
+	 * pooled array if there is one.
+	 * 
+	 * @param length
+	 *            the length of the array.
+	 * @return the array.
+	 */
+	public String[] borrow(int length) {
+		if (length == 0)
+			return EMPTY;
+		ThreadCache cache = threadCache.get();
+		String[][] cached = cache.arrays;
+		for (int i = 0; i < cached.length; i++) {
+			String[] array = cached[i];
+			if (array != null && array.length == length) {
+				cached[i] = null;
+				cache.slots -= length;
+				hits.increment();
+				return array;
+			}
+		}
+		synchronized (this) {
+			ArrayDeque<String[]> arrays = shared.get(length);
+			if (arrays != null && !arrays.isEmpty()) {
+				pooledSlots.addAndGet(-length);
+				hits.increment();
+				return arrays.pop();
+			}
+		}
+		misses.increment();
+		return new String[length];
+	}
+
+	/**
+	 * Give an array back to the pool. The caller must not use it afterwards.
+	 * 
+	 * @param array
+	 *            the array to give back.
+	 * @param used
+	 *            the number of leading slots of array that may be non-null;
+	 *            the rest must already be null.
+	 */
+	public void release(String[] array, int used) {
+		int length = array.length;
+		if (length == 0)
+			return;
+		ThreadCache cache = threadCache.get();
+		if (cache.slots + length <= threadCacheSlots) {
+			String[][] cached = cache.arrays;
+			for (int i = 0; i < cached.length; i++) {
+				if (cached[i] == null) {
+					Arrays.fill(array, 0, used, null);
+					cached[i] = array;
+					cache.slots += length;
+					return;
+				}
+			}
+		}
+		if (pooledSlots.addAndGet(length) > maxPooledSlots) {
+			pooledSlots.addAndGet(-length);
+			dropped.increment();
+			return;
+		}
+		Arrays.fill(array, 0, used, null);
+		synchronized (this) {
+			ArrayDeque<String[]> arrays = shared.get(length);
+			if (arrays == null) {
+				arrays = new ArrayDeque<String[]>();
+				shared.put(length, arrays);
+			}
+			arrays.push(array);
+		}
+	}
+
+	/**
+	 * Drop every array in the shared pool and in the calling thread's cache.
+	 * Arrays cached by other threads stay with those threads.
+	 */
+	public void clear() {
+		ThreadCache cache = threadCache.get();
+		Arrays.fill(cache.arrays, null);
+		cache.slots = 0;
+		synchronized (this) {
+			for (ArrayDeque<String[]> arrays : shared.values()) {
+				for (String[] array : arrays)
+					pooledSlots.addAndGet(-array.length);
+			}
+			shared.clear();
+		}
+	}
+
+	/**
+	 * @return the total length of the arrays in the shared pool and in the
+	 *         calling thread's cache.
+	 */
+	public long getPooledSlots() {
+		return pooledSlots.get() + threadCache.get().slots;
+	}
+
+	/**
+	 * @return the number of borrows served from the pool.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of borrows that had to allocate a new array.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of arrays not kept because the pool was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/** The arrays kept by one thread. */
+	private static final class ThreadCache {
+		final String[][] arrays = new String[THREAD_CACHE_SIZE][];
+		long slots;
+	}
+}
@@ -0,0 +1,677 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/*
+ * Collection of rough benchmarks for Sequence. Each benchmark prints its
+ * timings; they are meant for comparing approaches on one machine, not as
+ * absolute numbers.
+ */
+public class SequenceBenchmarks {
+
+	public static void main(String[] args) {
+		System.out.println("Starting Benchmarks");
+
+		// Benchmarks start here.
+
+		benchDiff();
+		benchLoader();
+		benchInterning();
+		benchArrayPool();
+		benchMetricsOverhead();
+		benchIndex();
+		benchStatistics();
+		benchSharding();
+		benchComparison();
+		benchDurability();
+
+		// Benchmarks end here.
+		System.out.println("Benchmarks Complete");
+	}
+
+	private static void section(String title) {
+		System.out.println();
+		System.out.println(title);
+		for (int i = 0; i < title.length(); i++) {
+			System.out.print("-");
+		}
+		System.out.println();
+	}
+
+	private static void report(String label, long nanos) {
+		System.out.printf("%-48s %10.3f ms%n", label, nanos / 1e6);
+	}
+
+	private static Sequence filled(int n, String prefix) {
+		String[] values = new String[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = prefix + i;
+		}
+		Sequence s = new Sequence(n);
+		s.addAll(values, 0, n);
+		return s;
+	}
+
+	private static void benchDiff() {
+		section("diff/apply vs. full copy, 1M elements, 10 scattered edits");
+		int n = 1000000;
+		Sequence a = filled(n, "element-");
+		Sequence b = a.clone();
+		b.start();
+		for (int edit = 0; edit < 10; edit++) {
+			for (int i = 0; i < n / 11; i++) {
+				b.advance();
+			}
+			b.addAfter("edit-" + edit);
+		}
+
+		long start = System.nanoTime();
+		SequencePatch patch = Sequence.diff(a, b);
+		report("diff", System.nanoTime() - start);
+
+		start = System.nanoTime();
+		byte[] encoded = patch.toByteArray();
+		report("encode patch", System.nanoTime() - start);
+
+		start = System.nanoTime();
+		byte[] full = Sequence.diff(new Sequence(), b).toByteArray();
+		report("encode full contents", System.nanoTime() - start);
+
+		Sequence target = a.clone();
+		start = System.nanoTime();
+		target.apply(SequencePatch.fromByteArray(encoded));
+		report("decode + apply patch", System.nanoTime() - start);
+
+		Sequence rebuilt = new Sequence();
+		start = System.nanoTime();
+		rebuilt.apply(SequencePatch.fromByteArray(full));
+		report("decode + rebuild from full contents", System.nanoTime()
+				- start);
+
+		System.out.println("patch bytes: " + encoded.length
+				+ ", full contents bytes: " + full.length
+				+ ", patched equals target: " + target.equals(b));
+	}
+
+	private static void benchLoader() {
+		section("loading a 2M-line file: BufferedReader + addAfter vs. SequenceLoader");
+		try {
+			Path file = Files.createTempFile("sequence-bench", ".txt");
+			try {
+				try (BufferedWriter out = Files.newBufferedWriter(file,
+						StandardCharsets.UTF_8)) {
+					for (int i = 0; i < 2000000; i++) {
+						out.write("line number " + i);
+						out.newLine();
+					}
+				}
+
+				// The first round only warms up the JIT.
+				Sequence naive = null;
+				Sequence loaded = null;
+				int cores = Runtime.getRuntime().availableProcessors();
+				for (int round = 0; round < 2; round++) {
+					boolean timed = round == 1;
+					long start = System.nanoTime();
+					naive = new Sequence();
+					try (BufferedReader in = Files.newBufferedReader(file,
+							StandardCharsets.UTF_8)) {
+						String line;
+						while ((line = in.readLine()) != null)
+							naive.addAfter(line);
+					}
+					if (timed)
+						report("BufferedReader + addAfter", System.nanoTime()
+								- start);
+
+					start = System.nanoTime();
+					loaded = SequenceLoader.load(file);
+					if (timed)
+						report("SequenceLoader, 1 thread", System.nanoTime()
+								- start);
+
+					start = System.nanoTime();
+					SequenceLoader.load(file, cores);
+					if (timed)
+						report("SequenceLoader, " + cores + " thread(s)",
+								System.nanoTime() - start);
+				}
+
+				System.out.println("sizes: " + naive.size() + " / "
+						+ loaded.size() + ", capacities: "
+						+ naive.getCapacity() + " / " + loaded.getCapacity());
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.out.println("loader benchmark failed: " + e);
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return 1M tokens drawn from a skewed 20K-word vocabulary, each a fresh
+	 *         String as a parser would produce.
+	 */
+	private static String[] tokens() {
+		java.util.Random random = new java.util.Random(42);
+		String[] tokens = new String[1000000];
+		for (int i = 0; i < tokens.length; i++) {
+			int word = (int) Math.floor(Math.pow(random.nextDouble(), 3) * 20000);
+			tokens[i] = new String(("word-" + word).toCharArray());
+		}
+		return tokens;
+	}
+
+	private static void benchInterning() {
+		section("retained heap of 1M parsed tokens, with and without interning");
+		long base = usedHeap();
+		Sequence plain = new Sequence();
+		String[] tokens = tokens();
+		for (String token : tokens)
+			plain.addAfter(token);
+		tokens = null;
+		long plainBytes = usedHeap() - base;
+		System.out.println("no pool:          " + plainBytes / 1024 + " KiB");
+		plain.deduplicate();
+		long dedupedBytes = usedHeap() - base;
+		System.out.println("after deduplicate: " + dedupedBytes / 1024 + " KiB");
+		plain = null;
+
+		base = usedHeap();
+		StringPool pool = new StringPool(1 << 16);
+		Sequence pooled = new Sequence();
+		pooled.setInternPool(pool);
+		tokens = tokens();
+		long start = System.nanoTime();
+		for (String token : tokens)
+			pooled.addAfter(token);
+		long nanos = System.nanoTime() - start;
+		tokens = null;
+		long pooledBytes = usedHeap() - base;
+		System.out.println("with pool:        " + pooledBytes / 1024
+				+ " KiB (pool included), hit rate "
+				+ String.format("%.3f", pool.getHitRate()));
+		report("1M addAfter through the pool", nanos);
+		System.out.println("sizes: " + pooled.size());
+	}
+
+	/**
+	 * Build, clone, trim and discard a short-lived sequence of 200 elements.
+	 */
+	private static void churn(SequenceArrayPool pool, String[] values) {
+		Sequence s = pool == null ? new Sequence() : new Sequence(10, pool);
+		for (String value : values)
+			s.addAfter(value);
+		Sequence copy = s.clone();
+		copy.trimToSize();
+		s.release();
+		copy.release();
+	}
+
+	private static void benchArrayPool() {
+		section("allocation of 100K short-lived sequences, with and without an array pool");
+		String[] values = new String[200];
+		for (int i = 0; i < values.length; i++)
+			values[i] = "v" + i;
+		SequenceArrayPool pool = new SequenceArrayPool(1 << 16);
+		int rounds = 100000;
+		for (int i = 0; i < 1000; i++) {
+			churn(null, values);
+			churn(pool, values);
+		}
+
+		long bytes = SequenceRegressionTests.threadAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			churn(null, values);
+		long nanos = System.nanoTime() - start;
+		long plain = SequenceRegressionTests.threadAllocatedBytes() - bytes;
+		report("no pool", nanos);
+
+		bytes = SequenceRegressionTests.threadAllocatedBytes();
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			churn(pool, values);
+		nanos = System.nanoTime() - start;
+		long pooled = SequenceRegressionTests.threadAllocatedBytes() - bytes;
+		report("with pool", nanos);
+
+		System.out.println("bytes allocated per sequence: " + plain / rounds
+				+ " without pool, " + pooled / rounds + " with pool; hit rate "
+				+ pool.getHitCount() * 100
+				/ Math.max(1, pool.getHitCount() + pool.getMissCount()) + "%");
+	}
+
+	/**
+	 * Insert at the front of small sequences and clone them, touching every
+	 * instrumented path.
+	 */
+	private static long instrumentedWork(int rounds) {
+		long checksum = 0;
+		for (int r = 0; r < rounds; r++) {
+			Sequence s = new Sequence(4);
+			for (int i = 0; i < 32; i++)
+				s.addBefore("v");
+			s.start();
+			s.removeCurrent();
+			checksum += s.clone().size();
+		}
+		return checksum;
+	}
+
+	private static void benchMetricsOverhead() {
+		section("instrumentation overhead, 500K rounds of 32 inserts + clone");
+		int rounds = 500000;
+		for (int warmup = 0; warmup < 3; warmup++) {
+			SequenceMetrics.setEnabled(warmup % 2 == 0);
+			instrumentedWork(rounds / 10);
+		}
+		long checksum = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			SequenceMetrics.setEnabled(false);
+			long start = System.nanoTime();
+			checksum += instrumentedWork(rounds);
+			report("metrics disabled", System.nanoTime() - start);
+
+			SequenceMetrics.setEnabled(true);
+			start = System.nanoTime();
+			checksum += instrumentedWork(rounds);
+			report("metrics enabled", System.nanoTime() - start);
+		}
+		SequenceMetrics.setEnabled(false);
+		System.out.println(SequenceMetrics.snapshot() + " (checksum "
+				+ checksum + ")");
+		SequenceMetrics.reset();
+	}
+
+	/**
+	 * @return the number of elements of s starting with prefix, or containing
+	 *         it if contains is true, found by walking the cursor.
+	 */
+	private static int scan(Sequence s, String query, boolean contains) {
+		int matches = 0;
+		for (s.start(); s.isCurrent(); s.advance()) {
+			String value = s.getCurrent();
+			if (contains ? value.contains(query) : value.startsWith(query))
+				matches++;
+		}
+		return matches;
+	}
+
+	private static void benchIndex() {
+		section("prefix and substring queries over 1M elements: scan vs. SequenceIndex");
+		int n = 1000000;
+		String[] values = new String[n];
+		java.util.Random random = new java.util.Random(42);
+		for (int i = 0; i < n; i++)
+			values[i] = "user-" + random.nextInt(200000) + "@host"
+					+ random.nextInt(100) + ".example";
+		Sequence s = new Sequence(n);
+		s.addAll(values, 0, n);
+
+		long start = System.nanoTime();
+		SequenceIndex index = new SequenceIndex(s);
+		report("build index", System.nanoTime() - start);
+
+		String[] prefixes = { "user-1234", "user-99", "user-5" };
+		String[] infixes = { "4567@", "host42.", "@host1" };
+		int queries = 20;
+		for (int round = 0; round < 2; round++) {
+			boolean timed = round == 1;
+			for (String prefix : prefixes) {
+				start = System.nanoTime();
+				int scanned = 0;
+				for (int q = 0; q < queries; q++)
+					scanned = scan(s, prefix, false);
+				long scanNanos = (System.nanoTime() - start) / queries;
+				start = System.nanoTime();
+				int indexed = 0;
+				for (int q = 0; q < queries; q++)
+					indexed = index.startingWith(prefix).length;
+				long indexNanos = (System.nanoTime() - start) / queries;
+				if (timed) {
+					report("scan, starts with \"" + prefix + "\"", scanNanos);
+					report("index, starts with \"" + prefix + "\" (" + indexed
+							+ "/" + scanned + " hits)", indexNanos);
+				}
+			}
+			for (String infix : infixes) {
+				start = System.nanoTime();
+				int scanned = 0;
+				for (int q = 0; q < queries; q++)
+					scanned = scan(s, infix, true);
+				long scanNanos = (System.nanoTime() - start) / queries;
+				start = System.nanoTime();
+				int indexed = 0;
+				for (int q = 0; q < queries; q++)
+					indexed = index.containing(infix).length;
+				long indexNanos = (System.nanoTime() - start) / queries;
+				if (timed) {
+					report("scan, contains \"" + infix + "\"", scanNanos);
+					report("index, contains \"" + infix + "\" (" + indexed
+							+ "/" + scanned + " hits)", indexNanos);
+				}
+			}
+		}
+
+		start = System.nanoTime();
+		for (int i = 0; i < 100000; i++)
+			s.addAfter("user-" + i + "@appended.example");
+		index.startingWith("user-1");
+		report("100K indexed appends + first query", System.nanoTime() - start);
+		s.start();
+		start = System.nanoTime();
+		for (int i = 0; i < 100; i++)
+			s.addBefore("user-front-" + i);
+		report("100 indexed inserts at the front", System.nanoTime() - start);
+		index.close();
+	}
+
+	private static void benchStatistics() {
+		section("distinct count and top values of 1M tokens: exact pass vs. SequenceStatistics");
+		String[] tokens = tokens();
+		for (int round = 0; round < 2; round++) {
+			boolean timed = round == 1;
+			long start = System.nanoTime();
+			Sequence plain = new Sequence();
+			for (String token : tokens)
+				plain.addAfter(token);
+			long plainNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Sequence tracked = new Sequence();
+			SequenceStatistics stats = new SequenceStatistics(tracked);
+			for (String token : tokens)
+				tracked.addAfter(token);
+			long trackedNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			java.util.Map<String, Integer> exact = new java.util.HashMap<String, Integer>();
+			for (plain.start(); plain.isCurrent(); plain.advance()) {
+				Integer count = exact.get(plain.getCurrent());
+				exact.put(plain.getCurrent(), count == null ? 1 : count + 1);
+			}
+			String top = null;
+			for (java.util.Map.Entry<String, Integer> entry : exact.entrySet()) {
+				if (top == null || entry.getValue() > exact.get(top))
+					top = entry.getKey();
+			}
+			long exactNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long estimate = stats.getDistinctCount();
+			String estimatedTop = stats.getTopValues(1).get(0);
+			long sketchNanos = System.nanoTime() - start;
+
+			if (timed) {
+				report("1M addAfter", plainNanos);
+				report("1M addAfter with statistics attached", trackedNanos);
+				report("exact pass with a HashMap", exactNanos);
+				report("read the sketches", sketchNanos);
+				System.out.println("distinct: " + exact.size() + " exact, "
+						+ estimate + " estimated; top: " + top + " exact, "
+						+ estimatedTop + " estimated");
+			}
+		}
+	}
+
+	/**
+	 * Run threads doing 80% reads, 10% inserts and 10% removals at random
+	 * positions for about 200 ms.
+	 * 
+	 * @return the number of operations completed per millisecond.
+	 */
+	private static long shardedThroughput(final ShardedSequence s, int threads) {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final LongAdder operations = new LongAdder();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					java.util.Random random = new java.util.Random(seed);
+					long done = 0;
+					while (!stop.get()) {
+						int op = random.nextInt(10);
+						int size = s.size();
+						if (op < 8)
+							s.get(random.nextInt(size));
+						else if (op < 9)
+							s.add(random.nextInt(size + 1), "inserted");
+						else
+							s.remove(random.nextInt(size - 1));
+						done++;
+					}
+					operations.add(done);
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers)
+			worker.start();
+		try {
+			Thread.sleep(200);
+			stop.set(true);
+			for (Thread worker : workers)
+				worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		return operations.sum() / millis;
+	}
+
+	private static void benchSharding() {
+		section("mixed random-position edits on 200K elements: 1 shard vs. 64 shards, ops/ms");
+		int n = 200000;
+		String[] values = new String[n];
+		for (int i = 0; i < n; i++)
+			values[i] = "element-" + i;
+		System.out.println("available processors: "
+				+ Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-8s %12s %12s%n", "threads", "1 shard", "64 shards");
+		for (int threads = 1; threads <= 32; threads *= 2) {
+			long[] throughput = new long[2];
+			int[] shardCounts = { 1, 64 };
+			for (int c = 0; c < 2; c++) {
+				ShardedSequence s = new ShardedSequence(shardCounts[c],
+						ForkJoinPool.commonPool());
+				s.addAll(values, 0, n);
+				s.rebalance();
+				if (threads == 1)
+					shardedThroughput(s, 1);
+				throughput[c] = shardedThroughput(s, threads);
+			}
+			System.out.printf("%-8d %12d %12d%n", threads, throughput[0],
+					throughput[1]);
+		}
+
+		ShardedSequence s = new ShardedSequence(64, ForkJoinPool.commonPool());
+		s.addAll(values, 0, n);
+		long start = System.nanoTime();
+		int matches = s.count(new Predicate<String>() {
+			public boolean test(String value) {
+				return value.endsWith("7");
+			}
+		});
+		report("parallel count over 64 shards (" + matches + " matches)",
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * @return a sequence of n elements cycling through 1000 strings, created
+	 *         afresh so that no two calls share string objects.
+	 */
+	private static Sequence cycling(int n) {
+		String[] words = new String[1000];
+		for (int i = 0; i < words.length; i++)
+			words[i] = new String(("element-" + i).toCharArray());
+		String[] values = new String[n];
+		for (int i = 0; i < n; i++)
+			values[i] = words[i % words.length];
+		Sequence s = new Sequence(n + 1);
+		s.addAll(values, 0, n);
+		return s;
+	}
+
+	/**
+	 * Find where two sequences diverge by walking both cursors, the way
+	 * callers had to before mismatch.
+	 */
+	private static int cursorMismatch(Sequence a, Sequence b) {
+		int index = 0;
+		a.start();
+		b.start();
+		while (a.isCurrent() && b.isCurrent()
+				&& a.getCurrent().equals(b.getCurrent())) {
+			a.advance();
+			b.advance();
+			index++;
+		}
+		return index;
+	}
+
+	private static void benchComparison() {
+		section("comparing near-identical 10M-element sequences that differ in the last element");
+		int n = 10000000;
+		Sequence a = cycling(n);
+		Sequence copy = a.clone();
+		Sequence rebuilt = cycling(n);
+		for (Sequence s : new Sequence[] { a, copy, rebuilt })
+			s.moveTo(n);
+		copy.addAfter("last");
+		rebuilt.addAfter("last");
+		a.addAfter("LAST");
+
+		for (int round = 0; round < 2; round++) {
+			boolean timed = round == 1;
+			long start = System.nanoTime();
+			int walked = cursorMismatch(a, rebuilt);
+			long walkNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int fromCopy = a.mismatch(copy);
+			long copyNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int fromRebuilt = a.mismatch(rebuilt);
+			long rebuiltNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int order = a.compareTo(rebuilt);
+			long compareNanos = System.nanoTime() - start;
+
+			a.moveTo(n);
+			a.removeCurrent();
+			start = System.nanoTime();
+			boolean equal = a.equals(rebuilt);
+			long sizeNanos = System.nanoTime() - start;
+			a.moveTo(n);
+			a.addAfter("LAST");
+
+			if (timed) {
+				report("walking both cursors (" + walked + ")", walkNanos);
+				report("mismatch vs. clone (" + fromCopy + ")", copyNanos);
+				report("mismatch vs. equal strings (" + fromRebuilt + ")",
+						rebuiltNanos);
+				report("compareTo vs. equal strings (" + order + ")",
+						compareNanos);
+				report("equals with different sizes (" + equal + ")",
+						sizeNanos);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of changes per second that threads appending to d
+	 *         complete in 500 ms.
+	 */
+	private static long durableThroughput(final DurableSequence d, int threads) {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final LongAdder operations = new LongAdder();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					long done = 0;
+					try {
+						while (!stop.get()) {
+							d.addAfter("logged element");
+							done++;
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+					operations.add(done);
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers)
+			worker.start();
+		try {
+			Thread.sleep(500);
+			stop.set(true);
+			for (Thread worker : workers)
+				worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long nanos = Math.max(1, System.nanoTime() - start);
+		return operations.sum() * 1000000000L / nanos;
+	}
+
+	private static void benchDurability() {
+		section("durable appends: force per change (SYNC) vs. group commit (GROUP), changes/s");
+		System.out.printf("%-8s %-8s %12s %14s%n", "level", "threads",
+				"changes/s", "changes/force");
+		DurableSequence.Durability[] levels = {
+				DurableSequence.Durability.SYNC,
+				DurableSequence.Durability.GROUP,
+				DurableSequence.Durability.NONE };
+		try {
+			for (DurableSequence.Durability level : levels) {
+				for (int threads = 1; threads <= 16; threads *= 4) {
+					Path directory = Files.createTempDirectory("durable");
+					try {
+						DurableSequence d = DurableSequence.open(directory,
+								level);
+						long throughput = durableThroughput(d, threads);
+						long changes = d.size();
+						long forces = d.getForceCount();
+						d.close();
+						System.out.printf("%-8s %-8d %12d %14s%n", level,
+								threads, throughput,
+								level == DurableSequence.Durability.NONE ? "-"
+										: String.format("%.1f",
+												(double) changes / forces));
+					} finally {
+						try (java.nio.file.DirectoryStream<Path> files = Files
+								.newDirectoryStream(directory)) {
+							for (Path file : files)
+								Files.delete(file);
+						}
+						Files.delete(directory);
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("durability benchmark failed: " + e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One change to a Sequence, as delivered by a SequenceChangeFeed. Runs of
+ * similar changes are coalesced into a single SequenceChange, so one change
+ * may describe several inserted or removed elements.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public final class SequenceChange {
+
+	/**
+	 * The kinds of change.
+	 */
+	public enum Type {
+		/**
+		 * The values were inserted one after another starting at index. The
+		 * last of them is the current element.
+		 */
+		INSERTED,
+		/**
+		 * The values, which started at index, were removed. The element now
+		 * at index, if any, is the current element.
+		 */
+		REMOVED,
+		/**
+		 * The current element moved to index, which equals the size of the
+		 * sequence if there is no current element.
+		 */
+		CURSOR_MOVED,
+		/**
+		 * The values were appended to the end of the sequence starting at
+		 * index. The current element did not change.
+		 */
+		ADDED_ALL,
+		/**
+		 * The capacity changed to index; there are no values.
+		 */
+		CAPACITY_CHANGED,
+		/**
+		 * The whole contents were replaced by the values, and the current
+		 * element is at index. Earlier changes can be ignored.
+		 */
+		REPLACED
+	}
+
+	private final Type type;
+	private final int index;
+	private final List<String> values;
+
+	SequenceChange(Type type, int index, List<String> values) {
+		this.type = type;
+		this.index = index;
+		this.values = values;
+	}
+
+	static SequenceChange of(Type type, int index) {
+		return new SequenceChange(type, index, Collections.<String> emptyList());
+	}
+
+	/**
+	 * Create a change holding values, which the caller must not modify
+	 * afterwards.
+	 */
+	static SequenceChange of(Type type, int index, List<String> values) {
+		return new SequenceChange(type, index,
+				Collections.unmodifiableList(values));
+	}
+
+	/**
+	 * @return the kind of change.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the index the change applies to; see Type for its meaning.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the elements inserted, removed, appended or now held, in order;
+	 *         empty for CURSOR_MOVED and CAPACITY_CHANGED.
+	 */
+	public List<String> getValues() {
+		return values;
+	}
+
+	/**
+	 * @return a string such as "INSERTED@3[A, B]".
+	 */
+	public String toString() {
+		return type + "@" + index + (values.isEmpty() ? "" : values.toString());
+	}
+}
@@ -0,0 +1,340 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Publishes the changes made to a Sequence as batches of SequenceChange
+ * objects, so that a copy of the sequence can be kept up to date without
+ * comparing the whole sequence after every change.
+ * 
+ * Changes are collected into a pending batch. Runs of similar changes are
+ * coalesced: repeated cursor moves and capacity changes keep only the last
+ * one, consecutive insertions or appends become one change, removals at the
+ * same index become one change, and a replacement of the whole contents
+ * discards everything pending before it. A batch is published when it
+ * describes batchSize elements and changes, or when flush is called.
+ * 
+ * Each subscriber receives published batches only as fast as it requests
+ * them. A subscriber that falls more than MAX_QUEUED_BATCHES batches behind
+ * is cancelled and sent an IllegalStateException. While the feed has no
+ * subscribers it records nothing.
+ * 
+ * The feed, like the sequence, is not safe for concurrent changes. Changes are
+ * recorded and batches delivered on the thread that changes the sequence, or
+ * that calls flush or request.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class SequenceChangeFeed implements SequenceListener,
+		SequenceFlow.Publisher<List<SequenceChange>> {
+	// ************************************************************************
+	// Invariant of the SequenceChangeFeed class:
+	// (1) pending holds the finished changes of the batch being collected, in
+	// order. If open is true, the run described by openType, openIndex and
+	// openValues follows them and may still grow.
+	// (2) pendingWeight is the number of changes plus the number of values
+	// described by the batch being collected.
+	// (3) subscriptions holds every subscription that is neither cancelled
+	// nor complete, and subscriberCount == subscriptions.size().
+	// ************************************************************************
+	static final int DEFAULT_BATCH_SIZE = 256;
+	static final int MAX_QUEUED_BATCHES = 1024;
+
+	private final Sequence sequence;
+	private final int batchSize;
+	private final List<FeedSubscription> subscriptions = new ArrayList<FeedSubscription>();
+	private volatile int subscriberCount;
+	private boolean closed;
+
+	private List<SequenceChange> pending = new ArrayList<SequenceChange>();
+	private boolean open;
+	private SequenceChange.Type openType;
+	private int openIndex;
+	private List<String> openValues;
+	private int pendingWeight;
+
+	/**
+	 * Initialize a feed and attach it to a sequence.
+	 * 
+	 * @param sequence
+	 *            the sequence whose changes should be published.
+	 * @param batchSize
+	 *            the number of elements and changes after which a batch is
+	 *            published without waiting for flush.
+	 * @exception IllegalArgumentException
+	 *                Indicates that batchSize is not positive.
+	 */
+	public SequenceChangeFeed(Sequence sequence, int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize is not positive: "
+					+ batchSize);
+		}
+		this.sequence = sequence;
+		this.batchSize = batchSize;
+		sequence.addListener(this);
+	}
+
+	/**
+	 * Add a subscriber. It receives the batches published from now on, as it
+	 * requests them. Subscribing to a closed feed completes the subscriber at
+	 * once.
+	 * 
+	 * @param subscriber
+	 *            the subscriber to add.
+	 */
+	public synchronized void subscribe(
+			SequenceFlow.Subscriber<? super List<SequenceChange>> subscriber) {
+		FeedSubscription subscription = new FeedSubscription(subscriber);
+		if (closed) {
+			subscription.completing = true;
+			subscriber.onSubscribe(subscription);
+			subscription.deliver();
+			return;
+		}
+		subscriptions.add(subscription);
+		subscriberCount = subscriptions.size();
+		subscriber.onSubscribe(subscription);
+	}
+
+	/**
+	 * Publish the changes collected so far as a batch, even if it is smaller
+	 * than batchSize.
+	 */
+	public synchronized void flush() {
+		publish();
+	}
+
+	/**
+	 * Publish the pending batch, detach the feed from its sequence and complete
+	 * every subscriber once it has received the batches queued for it.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		publish();
+		closed = true;
+		sequence.removeListener(this);
+		for (FeedSubscription subscription : new ArrayList<FeedSubscription>(
+				subscriptions)) {
+			subscription.completing = true;
+			subscription.deliver();
+		}
+	}
+
+	/**
+	 * @return true if close has been called.
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of subscribers still receiving batches.
+	 */
+	public int getSubscriberCount() {
+		return subscriberCount;
+	}
+
+	public void inserted(Sequence s, int index, String value) {
+		if (subscriberCount != 0)
+			record(SequenceChange.Type.INSERTED, index, value);
+	}
+
+	public void removed(Sequence s, int index, String value) {
+		if (subscriberCount != 0)
+			record(SequenceChange.Type.REMOVED, index, value);
+	}
+
+	public void cursorMoved(Sequence s, int index) {
+		if (subscriberCount != 0)
+			record(SequenceChange.Type.CURSOR_MOVED, index, null);
+	}
+
+	public void addedAll(Sequence s, int index, String[] values, int offset,
+			int length) {
+		if (subscriberCount != 0)
+			record(SequenceChange.Type.ADDED_ALL, index, values, offset,
+					length);
+	}
+
+	public void capacityChanged(Sequence s, int capacity) {
+		if (subscriberCount != 0)
+			record(SequenceChange.Type.CAPACITY_CHANGED, capacity, null);
+	}
+
+	public void replaced(Sequence s) {
+		if (subscriberCount != 0) {
+			String[] contents = s.toArray();
+			record(SequenceChange.Type.REPLACED, s.currentIndex(), contents, 0,
+					contents.length);
+		}
+	}
+
+	private synchronized void record(SequenceChange.Type type, int index,
+			String value) {
+		if (value == null) {
+			record(type, index, null, 0, 0);
+		} else {
+			String[] single = { value };
+			record(type, index, single, 0, 1);
+		}
+	}
+
+	private synchronized void record(SequenceChange.Type type, int index,
+			String[] values, int offset, int length) {
+		if (subscriptions.isEmpty())
+			return;
+		if (type == SequenceChange.Type.REPLACED) {
+			pending.clear();
+			open = false;
+			pendingWeight = 0;
+		}
+		if (open && continuesRun(type, index)) {
+			if (type == SequenceChange.Type.CURSOR_MOVED
+					|| type == SequenceChange.Type.CAPACITY_CHANGED)
+				openIndex = index;
+		} else {
+			closeRun();
+			open = true;
+			openType = type;
+			openIndex = index;
+			openValues = new ArrayList<String>(Math.max(length, 4));
+			pendingWeight++;
+		}
+		for (int i = 0; i < length; i++)
+			openValues.add(values[offset + i]);
+		pendingWeight += length;
+		if (pendingWeight >= batchSize)
+			publish();
+	}
+
+	private boolean continuesRun(SequenceChange.Type type, int index) {
+		if (type != openType)
+			return false;
+		switch (type) {
+		case CURSOR_MOVED:
+		case CAPACITY_CHANGED:
+			return true;
+		case INSERTED:
+		case ADDED_ALL:
+			return index == openIndex + openValues.size();
+		case REMOVED:
+			return index == openIndex;
+		default:
+			return false;
+		}
+	}
+
+	private void closeRun() {
+		if (open) {
+			pending.add(SequenceChange.of(openType, openIndex, openValues));
+			open = false;
+			openValues = null;
+		}
+	}
+
+	private void publish() {
+		closeRun();
+		if (pending.isEmpty())
+			return;
+		List<SequenceChange> batch = Collections.unmodifiableList(pending);
+		pending = new ArrayList<SequenceChange>();
+		pendingWeight = 0;
+		for (FeedSubscription subscription : new ArrayList<FeedSubscription>(
+				subscriptions))
+			subscription.enqueue(batch);
+	}
+
+	private void detach(FeedSubscription subscription) {
+		subscriptions.remove(subscription);
+		subscriberCount = subscriptions.size();
+		if (subscriptions.isEmpty()) {
+			pending.clear();
+			open = false;
+			openValues = null;
+			pendingWeight = 0;
+		}
+	}
+
+	/**
+	 * The batches published for one subscriber that it has not yet received,
+	 * and the number of batches it has asked for. All fields are guarded by the
+	 * feed's monitor.
+	 */
+	private final class FeedSubscription implements SequenceFlow.Subscription {
+		private final SequenceFlow.Subscriber<? super List<SequenceChange>> subscriber;
+		private final ArrayDeque<List<SequenceChange>> queued = new ArrayDeque<List<SequenceChange>>();
+		private long demand;
+		private boolean cancelled;
+		private boolean completing;
+		private boolean delivering;
+
+		FeedSubscription(
+				SequenceFlow.Subscriber<? super List<SequenceChange>> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			synchronized (SequenceChangeFeed.this) {
+				if (cancelled)
+					return;
+				if (n <= 0) {
+					cancel();
+					subscriber.onError(new IllegalArgumentException(
+							"non-positive request: " + n));
+					return;
+				}
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				deliver();
+			}
+		}
+
+		public void cancel() {
+			synchronized (SequenceChangeFeed.this) {
+				if (!cancelled) {
+					cancelled = true;
+					queued.clear();
+					detach(this);
+				}
+			}
+		}
+
+		void enqueue(List<SequenceChange> batch) {
+			if (queued.size() >= MAX_QUEUED_BATCHES) {
+				cancel();
+				subscriber.onError(new IllegalStateException(
+						"subscriber fell more than " + MAX_QUEUED_BATCHES
+								+ " batches behind"));
+				return;
+			}
+			queued.add(batch);
+			deliver();
+		}
+
+		/**
+		 * Hand out queued batches while there is demand. A subscriber that
+		 * requests more from inside onNext is served by the loop already
+		 * running rather than by a nested one.
+		 */
+		void deliver() {
+			if (delivering)
+				return;
+			delivering = true;
+			try {
+				while (!cancelled && demand > 0 && !queued.isEmpty()) {
+					demand--;
+					subscriber.onNext(queued.poll());
+				}
+				if (completing && !cancelled && queued.isEmpty()) {
+					cancelled = true;
+					detach(this);
+					subscriber.onComplete();
+				}
+			} finally {
+				delivering = false;
+			}
+		}
+	}
+}
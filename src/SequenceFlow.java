@@ -0,0 +1,65 @@
+/**
+ * Interfaces for publishing items to subscribers with backpressure. They have
+ * the same shape and rules as java.util.concurrent.Flow, which is not
+ * available on the Java 8 language level this project is built with: a
+ * subscriber receives onSubscribe once, then at most as many onNext calls as
+ * it has requested, then at most one of onError or onComplete.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public final class SequenceFlow {
+
+	private SequenceFlow() {
+	}
+
+	/**
+	 * A source of items that subscribers can receive on demand.
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * Add a subscriber. The subscriber's onSubscribe method is called with
+		 * the subscription it uses to request items.
+		 * 
+		 * @param subscriber
+		 *            the subscriber to add.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items from a publisher.
+	 */
+	public interface Subscriber<T> {
+
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * The link between one publisher and one subscriber.
+	 */
+	public interface Subscription {
+
+		/**
+		 * Allow up to n more items to be delivered. A non-positive n makes
+		 * the publisher signal onError with an IllegalArgumentException.
+		 * 
+		 * @param n
+		 *            the number of additional items wanted.
+		 */
+		void request(long n);
+
+		/**
+		 * Stop delivering items. Items may still arrive for a short while if
+		 * they were already being delivered.
+		 */
+		void cancel();
+	}
+}
@@ -0,0 +1,606 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Search index over the elements of a Sequence, answering "which elements
+ * start with X" and "which elements contain Y" without scanning the sequence.
+ * The index is built in bulk when it is created and then kept up to date as a
+ * listener of the sequence, so queries always reflect its current contents.
+ *
+ * Prefix queries use a sorted permutation of the positions of the sequence:
+ * the positions ordered by the element they hold. Every element starting with
+ * a prefix lies in one contiguous range of it, found with two binary
+ * searches. This is the leaf level of a trie, at four bytes per element.
+ *
+ * Substring queries use the trigrams (runs of three characters) of the
+ * distinct elements: a query is answered from the distinct elements sharing
+ * its rarest trigram, and only those are checked with String.contains.
+ * Trigrams found in most distinct elements are not worth keeping and are
+ * dropped. A query whose trigrams are all common, or that is shorter than three
+ * characters, scans the sequence instead, as does one that would match so many
+ * distinct elements that looking each of them up costs more than a scan.
+ *
+ * Appending costs O(1) per element until the next query merges the appended
+ * positions in. Inserting or removing anywhere else costs O(n), like the
+ * sequence's own shift. The index, like the sequence, is not safe for
+ * concurrent use.
+ *
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class SequenceIndex implements SequenceListener {
+	// ************************************************************************
+	// Invariant of the SequenceIndex class:
+	// (1) Every position of the sequence is held exactly once, either in
+	// sorted[0, sortedCount) or in pending[0, pendingCount).
+	// (2) sorted[0, sortedCount) is ordered by the element at each position,
+	// and by position among equal elements.
+	// (3) ids maps every distinct element of the sequence to an id; values[id]
+	// is that element and counts[id] the number of times it occurs. The
+	// values of ids no longer in use are null, and there are deadIds of them.
+	// (4) For every trigram of a distinct element, grams holds the ids of the
+	// distinct elements containing it, possibly including dead ones, unless it
+	// holds SATURATED for that trigram.
+	// ************************************************************************
+	private static final IntList SATURATED = new IntList();
+
+	private final Sequence sequence;
+	private boolean closed;
+
+	private int[] sorted = new int[0];
+	private int sortedCount;
+	private int[] pending = new int[16];
+	private int pendingCount;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private String[] values = new String[16];
+	private int[] counts = new int[16];
+	private int nextId;
+	private int deadIds;
+	private final GramTable grams = new GramTable();
+
+	/**
+	 * Initialize an index over the current contents of a sequence and attach
+	 * it to the sequence.
+	 *
+	 * @param sequence
+	 *            the sequence to index.
+	 * @postcondition The index reflects every later change to the sequence
+	 *                until it is closed.
+	 */
+	public SequenceIndex(Sequence sequence) {
+		this.sequence = sequence;
+		rebuild();
+		sequence.addListener(this);
+	}
+
+	/**
+	 * Detach the index from its sequence and drop its contents. Closing a
+	 * closed index does nothing.
+	 */
+	public void close() {
+		if (!closed) {
+			closed = true;
+			sequence.removeListener(this);
+			sorted = new int[0];
+			sortedCount = 0;
+			pendingCount = 0;
+			clearValues();
+		}
+	}
+
+	/**
+	 * Find the elements that start with a prefix.
+	 *
+	 * @param prefix
+	 *            the prefix to look for; the empty string matches every
+	 *            element.
+	 * @return the positions of the matching elements, in increasing order.
+	 * @exception IllegalStateException
+	 *                Indicates that the index has been closed.
+	 */
+	public int[] startingWith(String prefix) {
+		checkOpen();
+		merge();
+		int from = lowerBound(prefix);
+		int[] positions = Arrays.copyOfRange(sorted, from, prefixEnd(prefix,
+				from));
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	/**
+	 * Count the elements that start with a prefix, with two binary searches
+	 * and without building the list of their positions.
+	 *
+	 * @param prefix
+	 *            the prefix to look for.
+	 * @return the number of elements that start with prefix.
+	 * @exception IllegalStateException
+	 *                Indicates that the index has been closed.
+	 */
+	public int countStartingWith(String prefix) {
+		checkOpen();
+		merge();
+		int from = lowerBound(prefix);
+		return prefixEnd(prefix, from) - from;
+	}
+
+	/**
+	 * @param from
+	 *            the lower bound of prefix in sorted.
+	 * @return the end of the run of sorted elements, starting at from, that
+	 *         start with prefix. Such elements follow the lower bound of the
+	 *         prefix directly.
+	 */
+	private int prefixEnd(String prefix, int from) {
+		int to = from;
+		int hi = sortedCount;
+		while (to < hi) {
+			int mid = (to + hi) >>> 1;
+			if (sequence.elementAt(sorted[mid]).startsWith(prefix))
+				to = mid + 1;
+			else
+				hi = mid;
+		}
+		return to;
+	}
+
+	/**
+	 * Find the elements that contain a string.
+	 *
+	 * @param infix
+	 *            the string to look for; the empty string matches every
+	 *            element.
+	 * @return the positions of the matching elements, in increasing order.
+	 * @exception IllegalStateException
+	 *                Indicates that the index has been closed.
+	 */
+	public int[] containing(String infix) {
+		checkOpen();
+		IntList rarest = null;
+		for (int i = 0; i + 3 <= infix.length(); i++) {
+			IntList candidates = grams.get(gram(infix, i));
+			if (candidates == null)
+				return new int[0];
+			if (candidates != SATURATED
+					&& (rarest == null || candidates.size < rarest.size))
+				rarest = candidates;
+		}
+		merge();
+		// Each candidate costs a binary search over sorted, whose steps miss
+		// the cache about as often as eight elements of a scan; past n / (8
+		// log n) candidates one pass over the sequence is cheaper.
+		int logN = 32 - Integer.numberOfLeadingZeros(sortedCount + 1);
+		if (rarest == null || rarest.size > sortedCount / (8 * logN))
+			return scan(infix);
+
+		int total = 0;
+		IntList matches = new IntList();
+		for (int i = 0; i < rarest.size; i++) {
+			int id = rarest.items[i];
+			if (values[id] != null && values[id].contains(infix)) {
+				matches.add(id);
+				total += counts[id];
+			}
+		}
+		int[] positions = new int[total];
+		int n = 0;
+		for (int i = 0; i < matches.size; i++) {
+			int id = matches.items[i];
+			System.arraycopy(sorted, lowerBound(values[id]), positions, n,
+					counts[id]);
+			n += counts[id];
+		}
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	/**
+	 * @return the number of distinct elements in the sequence.
+	 */
+	public int getDistinctCount() {
+		return ids.size();
+	}
+
+	public void inserted(Sequence sequence, int index, String value) {
+		if (index < sequence.size() - 1)
+			shift(index, 1);
+		addPending(index);
+		counted(value);
+	}
+
+	public void removed(Sequence sequence, int index, String value) {
+		if (!removePending(index))
+			removeSorted(index, value);
+		shift(index + 1, -1);
+		uncounted(value);
+	}
+
+	public void addedAll(Sequence sequence, int index, String[] values,
+			int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			addPending(index + i);
+			counted(values[offset + i]);
+		}
+	}
+
+	public void replaced(Sequence sequence) {
+		rebuild();
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("SequenceIndex is closed.");
+		}
+	}
+
+	/**
+	 * Index the whole sequence from scratch.
+	 */
+	private void rebuild() {
+		int n = sequence.size();
+		clearValues();
+		int[] idAt = new int[n];
+		for (int i = 0; i < n; i++) {
+			String value = sequence.elementAt(i);
+			Integer id = ids.get(value);
+			if (id == null)
+				id = newId(value);
+			counts[id]++;
+			idAt[i] = id;
+		}
+
+		// Sort the distinct elements only, then place every position after
+		// the positions of the elements ranked before its own.
+		int[] order = new int[nextId];
+		for (int id = 0; id < nextId; id++)
+			order[id] = id;
+		sort(order, 0, nextId, new int[nextId], values);
+		int[] next = new int[nextId];
+		int start = 0;
+		for (int id : order) {
+			next[id] = start;
+			start += counts[id];
+		}
+		sorted = new int[n];
+		for (int i = 0; i < n; i++)
+			sorted[next[idAt[i]]++] = i;
+		sortedCount = n;
+		pendingCount = 0;
+		indexGrams();
+	}
+
+	private void clearValues() {
+		ids.clear();
+		values = new String[16];
+		counts = new int[16];
+		nextId = 0;
+		deadIds = 0;
+		grams.clear();
+	}
+
+	/**
+	 * Rebuild grams from the live distinct elements, dropping dead ids.
+	 */
+	private void indexGrams() {
+		grams.clear();
+		if (deadIds > 0) {
+			String[] live = new String[ids.size() + 16];
+			int[] liveCounts = new int[live.length];
+			int id = 0;
+			for (int old = 0; old < nextId; old++) {
+				if (values[old] != null) {
+					live[id] = values[old];
+					liveCounts[id] = counts[old];
+					ids.put(live[id], id);
+					id++;
+				}
+			}
+			values = live;
+			counts = liveCounts;
+			nextId = id;
+			deadIds = 0;
+		}
+		for (int id = 0; id < nextId; id++)
+			addGrams(id);
+	}
+
+	private int newId(String value) {
+		if (nextId == values.length) {
+			values = Arrays.copyOf(values, nextId * 2);
+			counts = Arrays.copyOf(counts, nextId * 2);
+		}
+		int id = nextId++;
+		values[id] = value;
+		ids.put(value, id);
+		return id;
+	}
+
+	private void addGrams(int id) {
+		String value = values[id];
+		// A trigram list is saturated once it holds a quarter of the
+		// distinct elements, and never less than 1024 of them.
+		int limit = Math.max(1024, ids.size() / 4);
+		for (int i = 0; i + 3 <= value.length(); i++) {
+			long gram = gram(value, i);
+			IntList list = grams.get(gram);
+			if (list == null) {
+				list = new IntList();
+				grams.put(gram, list);
+			} else if (list == SATURATED
+					|| list.items[list.size - 1] == id) {
+				continue;
+			} else if (list.size >= limit) {
+				grams.put(gram, SATURATED);
+				continue;
+			}
+			list.add(id);
+		}
+	}
+
+	/**
+	 * @return the positions of the elements containing infix, found with one
+	 *         pass over the sequence.
+	 */
+	private int[] scan(String infix) {
+		IntList positions = new IntList();
+		int n = sequence.size();
+		for (int i = 0; i < n; i++) {
+			if (sequence.elementAt(i).contains(infix))
+				positions.add(i);
+		}
+		return Arrays.copyOf(positions.items, positions.size);
+	}
+
+	/**
+	 * Sort the pending positions and merge them into sorted, in place and from
+	 * the back, so that only the sorted positions ordered after the smallest
+	 * pending one move. sorted grows geometrically, so appending and querying
+	 * in turn does not copy the whole permutation each time.
+	 */
+	private void merge() {
+		if (pendingCount == 0)
+			return;
+		sort(pending, 0, pendingCount, new int[pendingCount], null);
+		int total = sortedCount + pendingCount;
+		if (total > sorted.length)
+			sorted = Arrays.copyOf(sorted, Math.max(total, sorted.length * 2));
+		int i = sortedCount - 1;
+		int j = pendingCount - 1;
+		int k = total - 1;
+		while (j >= 0) {
+			if (i >= 0 && compare(sorted[i], pending[j], null) > 0)
+				sorted[k--] = sorted[i--];
+			else
+				sorted[k--] = pending[j--];
+		}
+		sortedCount = total;
+		pendingCount = 0;
+		if (pending.length > 16)
+			pending = new int[16];
+	}
+
+	/**
+	 * Order two indexes by the strings they refer to, then by index. The
+	 * indexes are positions of the sequence if keys is null, and indexes of
+	 * keys otherwise.
+	 */
+	private int compare(int p, int q, String[] keys) {
+		int c = keys == null ? sequence.elementAt(p).compareTo(
+				sequence.elementAt(q)) : keys[p].compareTo(keys[q]);
+		return c != 0 ? c : Integer.compare(p, q);
+	}
+
+	/**
+	 * Merge sort positions[from, to) with compare, using scratch as a buffer
+	 * of at least the same length.
+	 */
+	private void sort(int[] positions, int from, int to, int[] scratch,
+			String[] keys) {
+		if (to - from < 16) {
+			for (int i = from + 1; i < to; i++) {
+				int p = positions[i];
+				int j = i - 1;
+				while (j >= from && compare(positions[j], p, keys) > 0) {
+					positions[j + 1] = positions[j];
+					j--;
+				}
+				positions[j + 1] = p;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(positions, from, mid, scratch, keys);
+		sort(positions, mid, to, scratch, keys);
+		if (compare(positions[mid - 1], positions[mid], keys) <= 0)
+			return;
+		System.arraycopy(positions, from, scratch, from, to - from);
+		int i = from;
+		int j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to
+					|| (i < mid && compare(scratch[i], scratch[j], keys) <= 0))
+				positions[k] = scratch[i++];
+			else
+				positions[k] = scratch[j++];
+		}
+	}
+
+	/**
+	 * @return the first index of sorted whose element is not less than value.
+	 */
+	private int lowerBound(String value) {
+		int lo = 0;
+		int hi = sortedCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sequence.elementAt(sorted[mid]).compareTo(value) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Add delta to every held position that is at least from.
+	 */
+	private void shift(int from, int delta) {
+		int[] s = sorted;
+		for (int i = 0; i < sortedCount; i++) {
+			if (s[i] >= from)
+				s[i] += delta;
+		}
+		int[] p = pending;
+		for (int i = 0; i < pendingCount; i++) {
+			if (p[i] >= from)
+				p[i] += delta;
+		}
+	}
+
+	private void addPending(int position) {
+		if (pendingCount == pending.length)
+			pending = Arrays.copyOf(pending, pendingCount * 2);
+		pending[pendingCount++] = position;
+	}
+
+	private boolean removePending(int position) {
+		for (int i = 0; i < pendingCount; i++) {
+			if (pending[i] == position) {
+				pending[i] = pending[--pendingCount];
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove position from sorted. The element it held, value, has already
+	 * been removed from the sequence, so every later element now sits one
+	 * position earlier than sorted says.
+	 */
+	private void removeSorted(int position, String value) {
+		int lo = 0;
+		int hi = sortedCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = sorted[mid];
+			int c;
+			if (p == position) {
+				c = 0;
+			} else {
+				String held = sequence.elementAt(p < position ? p : p - 1);
+				c = held.compareTo(value);
+				if (c == 0)
+					c = Integer.compare(p, position);
+			}
+			if (c < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		System.arraycopy(sorted, lo + 1, sorted, lo, sortedCount - lo - 1);
+		sortedCount--;
+	}
+
+	private void counted(String value) {
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = newId(value);
+			addGrams(id);
+		}
+		counts[id]++;
+	}
+
+	private void uncounted(String value) {
+		int id = ids.get(value);
+		if (--counts[id] == 0) {
+			// The id stays in the trigram lists until they are rebuilt;
+			// queries skip it.
+			ids.remove(value);
+			values[id] = null;
+			deadIds++;
+			if (deadIds > 1024 && deadIds > ids.size())
+				indexGrams();
+		}
+	}
+
+	/**
+	 * @return the three characters of s starting at i, packed into a key.
+	 */
+	private static long gram(String s, int i) {
+		return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16)
+				| s.charAt(i + 2);
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static final class IntList {
+		int[] items = new int[4];
+		int size;
+
+		void add(int item) {
+			if (size == items.length)
+				items = Arrays.copyOf(items, size * 2);
+			items[size++] = item;
+		}
+	}
+
+	/**
+	 * An open-addressing map from packed trigrams to lists of ids.
+	 */
+	private static final class GramTable {
+		private long[] keys = new long[64];
+		private IntList[] lists = new IntList[64];
+		private int size;
+
+		IntList get(long key) {
+			int mask = keys.length - 1;
+			for (int slot = hash(key) & mask; lists[slot] != null; slot = (slot + 1)
+					& mask) {
+				if (keys[slot] == key)
+					return lists[slot];
+			}
+			return null;
+		}
+
+		void put(long key, IntList list) {
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (lists[slot] != null && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			if (lists[slot] == null)
+				size++;
+			keys[slot] = key;
+			lists[slot] = list;
+			if (size * 2 > keys.length)
+				resize();
+		}
+
+		void clear() {
+			keys = new long[64];
+			lists = new IntList[64];
+			size = 0;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			IntList[] oldLists = lists;
+			keys = new long[oldKeys.length * 2];
+			lists = new IntList[oldKeys.length * 2];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldLists[i] != null)
+					put(oldKeys[i], oldLists[i]);
+			}
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
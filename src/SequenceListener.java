@@ -0,0 +1,109 @@
+/**
+ * Receives notice of every change made to a Sequence. Listeners are attached
+ * with Sequence.addListener and are called on the thread making the change,
+ * after the change has been made. Every method does nothing by default, so a
+ * listener only overrides the changes it cares about.
+ * 
+ * Listeners must not change the sequence they are attached to, and must not
+ * keep the arrays passed to addedAll, which belong to the caller.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public interface SequenceListener {
+
+	/**
+	 * Called after addBefore or addAfter. The inserted element is now the
+	 * current element.
+	 * 
+	 * @param sequence
+	 *            the sequence that changed.
+	 * @param index
+	 *            the index of the inserted element.
+	 * @param value
+	 *            the inserted element.
+	 */
+	default void inserted(Sequence sequence, int index, String value) {
+	}
+
+	/**
+	 * Called after removeCurrent removed an element. The element that followed
+	 * it, if any, is now at index and is the current element.
+	 * 
+	 * @param sequence
+	 *            the sequence that changed.
+	 * @param index
+	 *            the index the removed element had.
+	 * @param value
+	 *            the removed element.
+	 */
+	default void removed(Sequence sequence, int index, String value) {
+	}
+
+	/**
+	 * Called after start or advance moved the current element.
+	 * 
+	 * @param sequence
+	 *            the sequence that changed.
+	 * @param index
+	 *            the index of the new current element, equal to the size of
+	 *            the sequence if there is none.
+	 */
+	default void cursorMoved(Sequence sequence, int index) {
+	}
+
+	/**
+	 * Called after addAll appended elements to the end of the sequence.
+	 * 
+	 * @param sequence
+	 *            the sequence that changed.
+	 * @param index
+	 *            the index of the first appended element.
+	 * @param values
+	 *            the array holding the appended elements.
+	 * @param offset
+	 *            the index in values of the first appended element.
+	 * @param length
+	 *            the number of appended elements.
+	 */
+	default void addedAll(Sequence sequence, int index, String[] values,
+			int offset, int length) {
+	}
+
+	/**
+	 * Called after the capacity of the sequence changed.
+	 * 
+	 * @param sequence
+	 *            the sequence that changed.
+	 * @param capacity
+	 *            the new capacity.
+	 */
+	default void capacityChanged(Sequence sequence, int capacity) {
+	}
+
+	/**
+	 * Called after the whole contents of the sequence were replaced at once,
+	 * for example by apply.
+	 * 
+	 * @param sequence
+	 *            the sequence that changed.
+	 */
+	default void replaced(Sequence sequence) {
+	}
+
+	/**
+	 * Called after concatenation created a new sequence from two sequences,
+	 * on the listeners of both of them. The new sequence has no listeners of
+	 * its own; a listener may attach itself, or a listener derived from it,
+	 * to result.
+	 * 
+	 * @param first
+	 *            the sequence whose elements come first in result.
+	 * @param second
+	 *            the sequence whose elements come second in result.
+	 * @param result
+	 *            the new sequence.
+	 */
+	default void concatenated(Sequence first, Sequence second, Sequence result) {
+	}
+}
@@ -0,0 +1,380 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads newline-delimited UTF-8 files into a Sequence, one element per line.
+ * 
+ * The file is read through a FileChannel in large buffers. A first pass counts
+ * the lines so that the sequence's array is allocated once at its final size,
+ * and a second pass decodes each line straight from the read buffer into a
+ * String. A line ends at "\n"; a "\r" before it is dropped, and a last line
+ * without a newline is still loaded.
+ * 
+ * With a parallelism greater than one, the file is split at line boundaries
+ * into regions that are counted and decoded on separate threads, each writing
+ * its lines to its own part of the array, so the lines keep their order.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public final class SequenceLoader {
+
+	static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Files are not split into regions smaller than this, since the threads
+	 * would cost more than they save.
+	 */
+	static final long MIN_REGION_SIZE = 1 << 22;
+
+	private SequenceLoader() {
+	}
+
+	/**
+	 * Load a file on the calling thread.
+	 * 
+	 * @param file
+	 *            the file to load.
+	 * @return a sequence holding the lines of the file, in order, with the
+	 *         first line as the current element and capacity equal to the
+	 *         number of lines.
+	 * @exception IOException
+	 *                Indicates that the file could not be read, changed while
+	 *                it was loaded, or has more lines than a sequence can hold.
+	 * @exception IllegalStateException
+	 *                Indicates that the loaded sequence would exceed the
+	 *                SequenceMemory budget; this is found out before the lines
+	 *                are decoded.
+	 */
+	public static Sequence load(Path file) throws IOException {
+		return load(file, 1);
+	}
+
+	/**
+	 * Load a file using up to parallelism threads.
+	 * 
+	 * @param file
+	 *            the file to load.
+	 * @param parallelism
+	 *            the largest number of regions to split the file into.
+	 * @return a sequence holding the lines of the file, in order, with the
+	 *         first line as the current element and capacity equal to the
+	 *         number of lines.
+	 * @exception IllegalArgumentException
+	 *                Indicates that parallelism is not positive.
+	 * @exception IOException
+	 *                Indicates that the file could not be read, changed while
+	 *                it was loaded, or has more lines than a sequence can hold.
+	 * @exception IllegalStateException
+	 *                Indicates that the loaded sequence would exceed the
+	 *                SequenceMemory budget; this is found out before the lines
+	 *                are decoded.
+	 */
+	public static Sequence load(Path file, int parallelism) throws IOException {
+		return load(file, parallelism, null);
+	}
+
+	/**
+	 * Load a file using up to parallelism threads, interning every line
+	 * through a pool. The pool is also set as the intern pool of the returned
+	 * sequence.
+	 * 
+	 * @param file
+	 *            the file to load.
+	 * @param parallelism
+	 *            the largest number of regions to split the file into.
+	 * @param pool
+	 *            the pool to intern lines through, or null to keep every line
+	 *            as decoded.
+	 * @return a sequence holding the lines of the file, in order, with the
+	 *         first line as the current element and capacity equal to the
+	 *         number of lines.
+	 * @exception IllegalArgumentException
+	 *                Indicates that parallelism is not positive.
+	 * @exception IOException
+	 *                Indicates that the file could not be read, changed while
+	 *                it was loaded, or has more lines than a sequence can hold.
+	 * @exception IllegalStateException
+	 *                Indicates that the loaded sequence would exceed the
+	 *                SequenceMemory budget; this is found out before the lines
+	 *                are decoded.
+	 */
+	public static Sequence load(Path file, int parallelism,
+			final StringPool pool) throws IOException {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism is not positive: "
+					+ parallelism);
+		}
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			long[] bounds = regions(channel, size, parallelism);
+			int regionCount = bounds.length - 1;
+			ExecutorService workers = regionCount > 1 ? Executors
+					.newFixedThreadPool(regionCount, DAEMON_THREADS) : null;
+			try {
+				List<Callable<Long>> counters = new ArrayList<Callable<Long>>();
+				for (int r = 0; r < regionCount; r++) {
+					final long from = bounds[r];
+					final long to = bounds[r + 1];
+					final FileChannel ch = channel;
+					counters.add(new Callable<Long>() {
+						public Long call() throws IOException {
+							return countLines(ch, from, to);
+						}
+					});
+				}
+				List<Long> counts = run(workers, counters);
+
+				long total = 0;
+				for (long count : counts)
+					total += count;
+				if (total > Integer.MAX_VALUE - 8) {
+					throw new IOException(file + " has " + total
+							+ " lines, more than a sequence can hold");
+				}
+				// Fail against the memory budget before the array and the
+				// strings are allocated, not after.
+				long reserved = SequenceMemory.reserveLoad(total, size);
+				String[] lines = null;
+				try {
+					lines = decodeAll(channel, workers, bounds, counts,
+							(int) total, pool);
+				} finally {
+					if (lines == null)
+						SequenceMemory.unreserve(reserved);
+				}
+				Sequence loaded = new Sequence(lines, lines.length, reserved);
+				loaded.setInternPool(pool);
+				return loaded;
+			} finally {
+				if (workers != null)
+					workers.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Decode every region into its part of a new array of total lines.
+	 */
+	private static String[] decodeAll(final FileChannel channel,
+			ExecutorService workers, long[] bounds, List<Long> counts,
+			int total, final StringPool pool) throws IOException {
+		final String[] lines = new String[total];
+		List<Callable<Long>> decoders = new ArrayList<Callable<Long>>();
+		int index = 0;
+		for (int r = 0; r < bounds.length - 1; r++) {
+			final long from = bounds[r];
+			final long to = bounds[r + 1];
+			final int first = index;
+			final int end = index + counts.get(r).intValue();
+			decoders.add(new Callable<Long>() {
+				public Long call() throws IOException {
+					decodeLines(channel, from, to, lines, first, end, pool);
+					return null;
+				}
+			});
+			index = end;
+		}
+		run(workers, decoders);
+		return lines;
+	}
+
+	/**
+	 * Split [0, size) into at most parallelism regions, each of which except
+	 * the last ends just after a newline.
+	 * 
+	 * @return the region boundaries; region r is [bounds[r], bounds[r + 1]).
+	 */
+	private static long[] regions(FileChannel channel, long size,
+			int parallelism) throws IOException {
+		int count = (int) Math.max(1,
+				Math.min(parallelism, size / MIN_REGION_SIZE));
+		long[] bounds = new long[count + 1];
+		int filled = 1;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		for (int r = 1; r < count; r++) {
+			long boundary = nextLineStart(channel, size * r / count, size,
+					probe);
+			if (boundary > bounds[filled - 1] && boundary < size)
+				bounds[filled++] = boundary;
+		}
+		bounds[filled++] = size;
+		long[] trimmed = new long[filled];
+		System.arraycopy(bounds, 0, trimmed, 0, filled);
+		return trimmed;
+	}
+
+	/**
+	 * @return the position just after the first newline at or after position,
+	 *         or size if there is none.
+	 */
+	private static long nextLineStart(FileChannel channel, long position,
+			long size, ByteBuffer probe) throws IOException {
+		while (position < size) {
+			probe.clear();
+			int read = channel.read(probe, position);
+			if (read < 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				if (probe.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of lines in [from, to): the number of newlines, plus
+	 *         one if the region does not end with a newline.
+	 */
+	static long countLines(FileChannel channel, long from, long to)
+			throws IOException {
+		byte[] bytes = new byte[(int) Math.min(BUFFER_SIZE,
+				Math.max(1, to - from))];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long lines = 0;
+		byte last = '\n';
+		long position = from;
+		while (position < to) {
+			buffer.clear();
+			buffer.limit((int) Math.min(bytes.length, to - position));
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new EOFException("file shrank while it was loaded");
+			for (int i = 0; i < read; i++) {
+				if (bytes[i] == '\n')
+					lines++;
+			}
+			if (read > 0)
+				last = bytes[read - 1];
+			position += read;
+		}
+		return last == '\n' ? lines : lines + 1;
+	}
+
+	/**
+	 * Decode the lines in [from, to) into lines[first] through lines[end - 1],
+	 * interning them through pool unless it is null.
+	 */
+	static void decodeLines(FileChannel channel, long from, long to,
+			String[] lines, int first, int end, StringPool pool)
+			throws IOException {
+		byte[] bytes = new byte[(int) Math.min(BUFFER_SIZE,
+				Math.max(1, to - from))];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		// Bytes [start, limit) of the buffer are read but not yet decoded, and
+		// none of [start, scan) is a newline.
+		int start = 0;
+		int scan = 0;
+		int limit = 0;
+		int index = first;
+		long position = from;
+		while (true) {
+			int newline = -1;
+			for (int i = scan; i < limit; i++) {
+				if (bytes[i] == '\n') {
+					newline = i;
+					break;
+				}
+			}
+			if (newline >= 0 || (position >= to && start < limit)) {
+				int lineEnd = newline >= 0 ? newline : limit;
+				int length = lineEnd - start;
+				if (length > 0 && bytes[lineEnd - 1] == '\r')
+					length--;
+				if (index == end)
+					throw new IOException("file grew while it was loaded");
+				String line = new String(bytes, start, length,
+						StandardCharsets.UTF_8);
+				lines[index++] = pool == null ? line : pool.intern(line);
+				start = newline >= 0 ? newline + 1 : limit;
+				scan = start;
+				continue;
+			}
+			if (position >= to)
+				break;
+			scan = limit;
+			if (start > 0) {
+				System.arraycopy(bytes, start, bytes, 0, limit - start);
+				limit -= start;
+				scan -= start;
+				start = 0;
+			}
+			if (limit == bytes.length) {
+				// The line is longer than the buffer.
+				byte[] bigger = new byte[bytes.length * 2];
+				System.arraycopy(bytes, 0, bigger, 0, limit);
+				bytes = bigger;
+				buffer = ByteBuffer.wrap(bytes);
+			}
+			buffer.limit((int) Math.min(bytes.length, limit + (to - position)));
+			buffer.position(limit);
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new EOFException("file shrank while it was loaded");
+			limit += read;
+			position += read;
+		}
+		if (index != end)
+			throw new IOException("file changed while it was loaded");
+	}
+
+	private static <T> List<T> run(ExecutorService workers,
+			List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<T>();
+		if (workers == null) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (IOException | RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			}
+			return results;
+		}
+		try {
+			List<Future<T>> futures = workers.invokeAll(tasks);
+			for (Future<T> future : futures)
+				results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while loading");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "SequenceLoader-worker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+}
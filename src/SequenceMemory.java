@@ -0,0 +1,311 @@
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide accounting of the heap retained by Sequence objects, with an
+ * optional budget that makes growth fail before the JVM runs out of memory.
+ * 
+ * Accounting is off by default. Once it is enabled, every sequence created
+ * afterwards keeps an account of the bytes taken by its backing array and,
+ * optionally, by its elements. The account is updated as the array is grown,
+ * trimmed, replaced or released and as elements are inserted and removed. The
+ * process-wide total is the sum of the accounts of sequences that are still
+ * reachable; an account is dropped from the total once its sequence has been
+ * garbage collected.
+ * 
+ * Sizes are estimates: an array takes a 16-byte header plus one reference per
+ * slot, and a string takes a 24-byte object plus its character array. A
+ * string held by several elements or sequences is counted once for each.
+ * 
+ * When a change would take the total past the budget, the budget listener is
+ * called first so that it can free memory, for example by trimming or
+ * spilling other sequences. If the total would still exceed the budget, the
+ * change is refused with an IllegalStateException and the sequence is left
+ * as it was.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public final class SequenceMemory {
+
+	/**
+	 * Called when a sequence needs more memory than the budget has left.
+	 */
+	public interface BudgetListener {
+
+		/**
+		 * Free memory, if possible, so that a change can go ahead. Called on
+		 * the thread making the change; must not change the sequence that is
+		 * asking for memory.
+		 * 
+		 * @param requestedBytes
+		 *            the number of bytes the change needs.
+		 * @param retainedBytes
+		 *            the number of bytes currently accounted for.
+		 * @param budgetBytes
+		 *            the budget.
+		 */
+		void overBudget(long requestedBytes, long retainedBytes,
+				long budgetBytes);
+	}
+
+	static final int REFERENCE_BYTES = referenceBytes();
+	static final int ARRAY_HEADER_BYTES = 16;
+	static final int STRING_OBJECT_BYTES = 24;
+	static final int BYTES_PER_CHAR = System.getProperty(
+			"java.specification.version").startsWith("1.") ? 2 : 1;
+
+	private static volatile boolean enabled;
+	private static volatile boolean countPayloads;
+	private static volatile long budget = Long.MAX_VALUE;
+	private static volatile BudgetListener budgetListener;
+
+	private static final AtomicLong retained = new AtomicLong();
+	private static final ReferenceQueue<Sequence> collected = new ReferenceQueue<Sequence>();
+	// Keeps the accounts reachable until their sequences are collected.
+	private static final Set<Account> accounts = Collections
+			.newSetFromMap(new ConcurrentHashMap<Account, Boolean>());
+
+	private SequenceMemory() {
+	}
+
+	/**
+	 * Turn accounting on or off for sequences created from now on. Sequences
+	 * that already have an account keep it.
+	 * 
+	 * @param enable
+	 *            whether new sequences should be accounted for.
+	 * @param includePayloads
+	 *            whether the elements of new sequences count as well as their
+	 *            arrays.
+	 */
+	public static void setEnabled(boolean enable, boolean includePayloads) {
+		countPayloads = includePayloads;
+		enabled = enable;
+	}
+
+	/**
+	 * @return true if sequences created now are accounted for.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Set the budget for the bytes retained by all accounted sequences.
+	 * 
+	 * @param bytes
+	 *            the budget, or Long.MAX_VALUE for none.
+	 * @param listener
+	 *            called when the budget would be exceeded, or null.
+	 * @exception IllegalArgumentException
+	 *                Indicates that bytes is negative.
+	 */
+	public static void setBudget(long bytes, BudgetListener listener) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("budget is negative: " + bytes);
+		}
+		budgetListener = listener;
+		budget = bytes;
+	}
+
+	/**
+	 * @return the budget set with setBudget.
+	 */
+	public static long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the bytes retained by all reachable accounted sequences.
+	 */
+	public static long getRetainedBytes() {
+		expunge();
+		return retained.get();
+	}
+
+	/**
+	 * @return the estimated size of a String array of the given length.
+	 */
+	public static long arrayBytes(int length) {
+		return align(ARRAY_HEADER_BYTES + (long) length * REFERENCE_BYTES);
+	}
+
+	/**
+	 * @return the estimated size of a string and its character array.
+	 */
+	public static long stringBytes(String value) {
+		return STRING_OBJECT_BYTES
+				+ align(ARRAY_HEADER_BYTES + (long) value.length()
+						* BYTES_PER_CHAR);
+	}
+
+	/**
+	 * @return the estimated size of values[from] through values[to - 1].
+	 */
+	static long stringBytes(String[] values, int from, int to) {
+		long bytes = 0;
+		for (int i = from; i < to; i++)
+			bytes += stringBytes(values[i]);
+		return bytes;
+	}
+
+	/**
+	 * Open an account for a new sequence.
+	 * 
+	 * @return the account, or null if accounting is off.
+	 */
+	static Account open(Sequence owner) {
+		if (!enabled)
+			return null;
+		Account account = new Account(owner, countPayloads);
+		accounts.add(account);
+		return account;
+	}
+
+	/**
+	 * Record that an account's array now takes arrayDelta more bytes and its
+	 * elements payloadDelta more. Growth is checked against the budget before
+	 * it is recorded.
+	 * 
+	 * @exception IllegalStateException
+	 *                Indicates that the growth would exceed the budget even
+	 *                after the budget listener was called.
+	 */
+	static void charge(Account account, long arrayDelta, long payloadDelta) {
+		charge(account, arrayDelta, payloadDelta, 0);
+	}
+
+	/**
+	 * Charge an account as charge(account, arrayDelta, payloadDelta) does,
+	 * taking over bytes set aside earlier with reserveLoad; only the
+	 * difference is checked against the budget.
+	 * 
+	 * @exception IllegalStateException
+	 *                Indicates that the growth beyond the reserved bytes would
+	 *                exceed the budget; the reserved bytes are given back.
+	 */
+	static void charge(Account account, long arrayDelta, long payloadDelta,
+			long reserved) {
+		long delta = arrayDelta + payloadDelta - reserved;
+		if (delta > 0) {
+			try {
+				reserve(delta);
+			} catch (IllegalStateException e) {
+				unreserve(reserved);
+				throw e;
+			}
+		} else {
+			retained.addAndGet(delta);
+		}
+		account.arrayBytes += arrayDelta;
+		account.payloadBytes += payloadDelta;
+	}
+
+	/**
+	 * Set aside, before anything is allocated, the bytes that a sequence
+	 * loaded from text is expected to retain, so that a load past the budget
+	 * fails before it reads the text. The estimate is an upper bound: each
+	 * line decodes to at most as many chars as it has bytes.
+	 * 
+	 * @param lines
+	 *            the number of lines, and of elements.
+	 * @param bytes
+	 *            the size of the text.
+	 * @return the bytes set aside, to be handed to the new sequence or given
+	 *         back with unreserve; 0 if accounting is off.
+	 * @exception IllegalStateException
+	 *                Indicates that the estimate would exceed the budget even
+	 *                after the budget listener was called.
+	 */
+	static long reserveLoad(long lines, long bytes) {
+		if (!enabled)
+			return 0;
+		long estimate = align(ARRAY_HEADER_BYTES + lines * REFERENCE_BYTES);
+		if (countPayloads)
+			estimate += lines * (STRING_OBJECT_BYTES + ARRAY_HEADER_BYTES + 7)
+					+ Math.max(0, bytes - lines + 1) * BYTES_PER_CHAR;
+		reserve(estimate);
+		return estimate;
+	}
+
+	/**
+	 * Give back bytes set aside with reserveLoad that no sequence took over.
+	 */
+	static void unreserve(long reserved) {
+		retained.addAndGet(-reserved);
+	}
+
+	private static void reserve(long bytes) {
+		expunge();
+		if (retained.addAndGet(bytes) <= budget)
+			return;
+		retained.addAndGet(-bytes);
+		BudgetListener listener = budgetListener;
+		if (listener != null) {
+			listener.overBudget(bytes, retained.get(), budget);
+			expunge();
+			if (retained.addAndGet(bytes) <= budget)
+				return;
+			retained.addAndGet(-bytes);
+		}
+		throw new IllegalStateException("Sequence memory budget of " + budget
+				+ " bytes exceeded: " + retained.get() + " bytes retained, "
+				+ bytes + " more requested");
+	}
+
+	/**
+	 * Drop the accounts of sequences that have been garbage collected.
+	 */
+	private static void expunge() {
+		Reference<? extends Sequence> reference;
+		while ((reference = collected.poll()) != null) {
+			Account account = (Account) reference;
+			if (accounts.remove(account))
+				retained.addAndGet(-account.total());
+		}
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	private static int referenceBytes() {
+		if (!"64".equals(System.getProperty("sun.arch.data.model")))
+			return 4;
+		try {
+			com.sun.management.HotSpotDiagnosticMXBean hotspot = ManagementFactory
+					.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+			return "true".equals(hotspot.getVMOption("UseCompressedOops")
+					.getValue()) ? 4 : 8;
+		} catch (RuntimeException | LinkageError e) {
+			return 8;
+		}
+	}
+
+	/**
+	 * The bytes accounted to one sequence. It is only changed by the thread
+	 * using the sequence, and only read elsewhere once the sequence has been
+	 * collected.
+	 */
+	static final class Account extends PhantomReference<Sequence> {
+		final boolean countPayloads;
+		volatile long arrayBytes;
+		volatile long payloadBytes;
+
+		Account(Sequence owner, boolean countPayloads) {
+			super(owner, collected);
+			this.countPayloads = countPayloads;
+		}
+
+		long total() {
+			return arrayBytes + payloadBytes;
+		}
+	}
+}
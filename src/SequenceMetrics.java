@@ -0,0 +1,248 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters for the work done by Sequence operations: elements
+ * shifted by inserts and removals, resizes and the slots they copy, slots
+ * copied by clone and concatenation, and characters produced by toString.
+ * 
+ * Counting is off by default; while it is off each instrumented operation
+ * only reads one flag. Operations that copy whole arrays are also timed, and
+ * those slower than a threshold are reported to a SlowOperationListener, which
+ * can forward them to JFR, a log or a metrics system.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public final class SequenceMetrics {
+
+	/**
+	 * Receives operations that took longer than the threshold given to
+	 * setSlowOperationListener. Called on the thread that ran the operation.
+	 */
+	public interface SlowOperationListener {
+
+		/**
+		 * @param operation
+		 *            the name of the operation, such as "ensureCapacity".
+		 * @param elements
+		 *            the number of elements it copied or produced.
+		 * @param nanos
+		 *            how long it took.
+		 */
+		void slowOperation(String operation, long elements, long nanos);
+	}
+
+	/**
+	 * An immutable copy of the counters at one moment.
+	 */
+	public static final class Snapshot {
+		private final long shifts;
+		private final long resizes;
+		private final long resizeSlotsCopied;
+		private final long cloneSlotsCopied;
+		private final long concatenationSlotsCopied;
+		private final long toStringChars;
+		private final long slowOperations;
+
+		Snapshot(long shifts, long resizes, long resizeSlotsCopied,
+				long cloneSlotsCopied, long concatenationSlotsCopied,
+				long toStringChars, long slowOperations) {
+			this.shifts = shifts;
+			this.resizes = resizes;
+			this.resizeSlotsCopied = resizeSlotsCopied;
+			this.cloneSlotsCopied = cloneSlotsCopied;
+			this.concatenationSlotsCopied = concatenationSlotsCopied;
+			this.toStringChars = toStringChars;
+			this.slowOperations = slowOperations;
+		}
+
+		/**
+		 * @return the elements moved one slot by addBefore, addAfter and
+		 *         removeCurrent.
+		 */
+		public long getShifts() {
+			return shifts;
+		}
+
+		/**
+		 * @return the number of times ensureCapacity or trimToSize replaced
+		 *         the backing array.
+		 */
+		public long getResizes() {
+			return resizes;
+		}
+
+		/**
+		 * @return the elements copied into new arrays by those resizes.
+		 */
+		public long getResizeSlotsCopied() {
+			return resizeSlotsCopied;
+		}
+
+		/**
+		 * @return the estimated bytes copied by those resizes.
+		 */
+		public long getResizeBytesCopied() {
+			return resizeSlotsCopied * SequenceMemory.REFERENCE_BYTES;
+		}
+
+		/**
+		 * @return the elements copied by clone.
+		 */
+		public long getCloneSlotsCopied() {
+			return cloneSlotsCopied;
+		}
+
+		/**
+		 * @return the elements copied by concatenation.
+		 */
+		public long getConcatenationSlotsCopied() {
+			return concatenationSlotsCopied;
+		}
+
+		/**
+		 * @return the characters produced by toString.
+		 */
+		public long getToStringChars() {
+			return toStringChars;
+		}
+
+		/**
+		 * @return the operations reported to the slow operation listener.
+		 */
+		public long getSlowOperations() {
+			return slowOperations;
+		}
+
+		/**
+		 * @return the counters as "name=value" pairs.
+		 */
+		public String toString() {
+			return "shifts=" + shifts + ", resizes=" + resizes
+					+ ", resizeSlotsCopied=" + resizeSlotsCopied
+					+ ", cloneSlotsCopied=" + cloneSlotsCopied
+					+ ", concatenationSlotsCopied=" + concatenationSlotsCopied
+					+ ", toStringChars=" + toStringChars + ", slowOperations="
+					+ slowOperations;
+		}
+	}
+
+	// Read by every instrumented operation; kept in its own field so that the
+	// disabled check is a single load. A timed operation reads it once, at
+	// entry, and reports only if it was set then, so that switching metrics on
+	// in the middle of an operation cannot time it from a start of 0.
+	static volatile boolean enabled;
+
+	private static volatile long slowThresholdNanos = Long.MAX_VALUE;
+	private static volatile SlowOperationListener slowListener;
+
+	private static final LongAdder shifts = new LongAdder();
+	private static final LongAdder resizes = new LongAdder();
+	private static final LongAdder resizeSlotsCopied = new LongAdder();
+	private static final LongAdder cloneSlotsCopied = new LongAdder();
+	private static final LongAdder concatenationSlotsCopied = new LongAdder();
+	private static final LongAdder toStringChars = new LongAdder();
+	private static final LongAdder slowOperations = new LongAdder();
+
+	private SequenceMetrics() {
+	}
+
+	/**
+	 * Turn counting on or off. The counters keep their values while off.
+	 * 
+	 * @param enable
+	 *            whether operations should be counted.
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * @return true if operations are being counted.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Report operations that copy whole arrays and take at least thresholdNanos
+	 * to a listener, while counting is on.
+	 * 
+	 * @param thresholdNanos
+	 *            the shortest duration reported.
+	 * @param listener
+	 *            the listener, or null to report nothing.
+	 */
+	public static void setSlowOperationListener(long thresholdNanos,
+			SlowOperationListener listener) {
+		slowListener = listener;
+		slowThresholdNanos = listener == null ? Long.MAX_VALUE
+				: thresholdNanos;
+	}
+
+	/**
+	 * @return the current values of the counters.
+	 */
+	public static Snapshot snapshot() {
+		return new Snapshot(shifts.sum(), resizes.sum(),
+				resizeSlotsCopied.sum(), cloneSlotsCopied.sum(),
+				concatenationSlotsCopied.sum(), toStringChars.sum(),
+				slowOperations.sum());
+	}
+
+	/**
+	 * Set every counter back to zero.
+	 */
+	public static void reset() {
+		shifts.reset();
+		resizes.reset();
+		resizeSlotsCopied.reset();
+		cloneSlotsCopied.reset();
+		concatenationSlotsCopied.reset();
+		toStringChars.reset();
+		slowOperations.reset();
+	}
+
+	static void shifted(int count) {
+		if (count > 0)
+			shifts.add(count);
+	}
+
+	static void resized(int copied, long startNanos) {
+		resizes.increment();
+		resizeSlotsCopied.add(copied);
+		timed("ensureCapacity", copied, startNanos);
+	}
+
+	static void trimmed(int copied, long startNanos) {
+		resizes.increment();
+		resizeSlotsCopied.add(copied);
+		timed("trimToSize", copied, startNanos);
+	}
+
+	static void cloned(int copied, long startNanos) {
+		cloneSlotsCopied.add(copied);
+		timed("clone", copied, startNanos);
+	}
+
+	static void concatenated(int copied, long startNanos) {
+		concatenationSlotsCopied.add(copied);
+		timed("concatenation", copied, startNanos);
+	}
+
+	static void printed(int chars, long startNanos) {
+		toStringChars.add(chars);
+		timed("toString", chars, startNanos);
+	}
+
+	private static void timed(String operation, long elements, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		if (nanos >= slowThresholdNanos) {
+			SlowOperationListener listener = slowListener;
+			if (listener != null) {
+				slowOperations.increment();
+				listener.slowOperation(operation, elements, nanos);
+			}
+		}
+	}
+}
@@ -0,0 +1,451 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An edit script that turns one sequence into another. A patch is made of
+ * hunks; each hunk removes a run of elements starting at a position in the
+ * source sequence and inserts a run of new elements in their place. The patch
+ * also records where the current element of the target sequence is.
+ *
+ * Patches are produced by Sequence.diff and applied with Sequence.apply. They
+ * can be encoded to a compact byte array for shipping to another process.
+ *
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class SequencePatch {
+	// ************************************************************************
+	// Invariant of the SequencePatch class:
+	// (1) hunkCount hunks are stored in positions, deleteCounts and
+	// insertions, ordered by position, and no two hunks overlap: for each
+	// hunk after the first, positions[i] >= positions[i - 1] +
+	// deleteCounts[i - 1].
+	// (2) Every hunk lies within the source: positions[i] + deleteCounts[i]
+	// <= sourceSize.
+	// (3) targetSize == sourceSize minus the deleted elements plus the
+	// inserted elements, and 0 <= targetCursor <= targetSize.
+	// ************************************************************************
+	private static final int MAGIC = 0x53515031; // "SQP1"
+
+	/**
+	 * Diffs whose middle section needs more edits than this are not refined
+	 * further; the whole differing section is replaced in one hunk instead.
+	 * This bounds the memory the edit-distance search can use.
+	 */
+	static final int MAX_EDIT_DISTANCE = 2048;
+
+	private final int sourceSize;
+	private final int targetSize;
+	private final int targetCursor;
+	private final int[] positions;
+	private final int[] deleteCounts;
+	private final String[][] insertions;
+
+	SequencePatch(int sourceSize, int targetSize, int targetCursor,
+			int[] positions, int[] deleteCounts, String[][] insertions) {
+		this.sourceSize = sourceSize;
+		this.targetSize = targetSize;
+		this.targetCursor = targetCursor;
+		this.positions = positions;
+		this.deleteCounts = deleteCounts;
+		this.insertions = insertions;
+	}
+
+	/**
+	 * @return the number of elements the sequence being patched must hold.
+	 */
+	public int getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * @return the number of elements the sequence holds after patching.
+	 */
+	public int getTargetSize() {
+		return targetSize;
+	}
+
+	/**
+	 * @return the number of hunks in this patch.
+	 */
+	public int getHunkCount() {
+		return positions.length;
+	}
+
+	/**
+	 * @return the total number of elements removed and inserted by this patch.
+	 */
+	public int getEditCount() {
+		int edits = 0;
+		for (int i = 0; i < positions.length; i++) {
+			edits += deleteCounts[i] + insertions[i].length;
+		}
+		return edits;
+	}
+
+	/**
+	 * Build the contents of the patched sequence from the contents of the
+	 * source sequence, copying unchanged runs in bulk.
+	 *
+	 * @param source
+	 *            the array holding the source elements in source[0] through
+	 *            source[sourceSize - 1].
+	 * @param target
+	 *            the array to write the patched elements to, holding only
+	 *            nulls and at least targetSize long.
+	 */
+	void applyTo(String[] source, String[] target) {
+		int from = 0;
+		int to = 0;
+		for (int i = 0; i < positions.length; i++) {
+			int unchanged = positions[i] - from;
+			System.arraycopy(source, from, target, to, unchanged);
+			to += unchanged;
+			String[] inserted = insertions[i];
+			System.arraycopy(inserted, 0, target, to, inserted.length);
+			to += inserted.length;
+			from = positions[i] + deleteCounts[i];
+		}
+		System.arraycopy(source, from, target, to, sourceSize - from);
+	}
+
+	/**
+	 * @return the index of the current element after patching, equal to the
+	 *         target size if there is none.
+	 */
+	int getTargetCursor() {
+		return targetCursor;
+	}
+
+	/**
+	 * Encode this patch as a compact byte array. Sizes and positions are
+	 * written as variable-length integers and strings as UTF-8, so a patch
+	 * holding a few edits takes a few dozen bytes regardless of the size of the
+	 * sequences it was computed from.
+	 *
+	 * @return the encoded patch.
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeInt(out, MAGIC);
+		writeVarInt(out, sourceSize);
+		writeVarInt(out, targetSize);
+		writeVarInt(out, targetCursor);
+		writeVarInt(out, positions.length);
+		int previousEnd = 0;
+		for (int i = 0; i < positions.length; i++) {
+			writeVarInt(out, positions[i] - previousEnd);
+			writeVarInt(out, deleteCounts[i]);
+			writeVarInt(out, insertions[i].length);
+			for (String value : insertions[i]) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				writeVarInt(out, bytes.length);
+				out.write(bytes, 0, bytes.length);
+			}
+			previousEnd = positions[i] + deleteCounts[i];
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode a patch encoded by toByteArray.
+	 *
+	 * @param bytes
+	 *            the encoded patch.
+	 * @return the decoded patch.
+	 * @exception IllegalArgumentException
+	 *                Indicates that bytes does not hold a well-formed patch.
+	 */
+	public static SequencePatch fromByteArray(byte[] bytes) {
+		Reader in = new Reader(bytes);
+		if (in.readInt() != MAGIC) {
+			throw new IllegalArgumentException("not an encoded SequencePatch");
+		}
+		int sourceSize = in.readVarInt();
+		int targetSize = in.readVarInt();
+		int targetCursor = in.readVarInt();
+		int hunkCount = in.readVarInt();
+		// Every hunk takes at least one byte, so a count beyond the remaining
+		// input is corrupt and must not size the arrays below.
+		if (hunkCount > (long) sourceSize + targetSize
+				|| hunkCount > in.remaining() || targetCursor > targetSize) {
+			throw new IllegalArgumentException("corrupt SequencePatch header");
+		}
+		int[] positions = new int[hunkCount];
+		int[] deleteCounts = new int[hunkCount];
+		String[][] insertions = new String[hunkCount][];
+		long previousEnd = 0;
+		long size = sourceSize;
+		for (int i = 0; i < hunkCount; i++) {
+			long position = previousEnd + in.readVarInt();
+			int deleted = in.readVarInt();
+			int inserted = in.readVarInt();
+			if (position + deleted > sourceSize || inserted > bytes.length) {
+				throw new IllegalArgumentException("corrupt SequencePatch hunk "
+						+ i);
+			}
+			positions[i] = (int) position;
+			deleteCounts[i] = deleted;
+			insertions[i] = new String[inserted];
+			for (int j = 0; j < inserted; j++) {
+				insertions[i][j] = in.readString();
+			}
+			previousEnd = position + deleted;
+			size += inserted - deleted;
+		}
+		if (size != targetSize || !in.atEnd()) {
+			throw new IllegalArgumentException("corrupt SequencePatch body");
+		}
+		return new SequencePatch(sourceSize, targetSize, targetCursor,
+				positions, deleteCounts, insertions);
+	}
+
+	/**
+	 * Compute a patch that turns the first size elements of source into the
+	 * first size elements of target. Common leading and trailing runs are
+	 * skipped in linear time, and the section in between is diffed with
+	 * Myers' O(ND) algorithm, so small edits to large sequences are cheap.
+	 */
+	static SequencePatch diff(String[] source, int sourceSize,
+			String[] target, int targetSize, int targetCursor) {
+		int limit = Math.min(sourceSize, targetSize);
+		int prefix = Sequence.prefixLength(source, target, limit);
+		int suffix = Sequence.suffixLength(source, sourceSize, target,
+				targetSize, limit - prefix);
+
+		Hunks hunks = new Hunks();
+		int aStart = prefix;
+		int aEnd = sourceSize - suffix;
+		int bStart = prefix;
+		int bEnd = targetSize - suffix;
+		if (aStart < aEnd || bStart < bEnd) {
+			if (!myers(source, aStart, aEnd, target, bStart, bEnd, hunks)) {
+				hunks.clear();
+				for (int i = aStart; i < aEnd; i++) {
+					hunks.delete(i);
+				}
+				for (int j = bStart; j < bEnd; j++) {
+					hunks.insert(aEnd, target[j]);
+				}
+			}
+		}
+		return hunks.toPatch(sourceSize, targetSize, targetCursor);
+	}
+
+	/**
+	 * Find a shortest edit script between source[aStart..aEnd) and
+	 * target[bStart..bEnd) and add its edits to hunks in order.
+	 *
+	 * @return false if the edit distance exceeds MAX_EDIT_DISTANCE, in which
+	 *         case hunks holds nothing useful.
+	 */
+	private static boolean myers(String[] a, int aStart, int aEnd,
+			String[] b, int bStart, int bEnd, Hunks hunks) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		int maxD = Math.min(n + m, MAX_EDIT_DISTANCE);
+		int offset = maxD + 1;
+		int[] v = new int[2 * maxD + 3];
+		List<int[]> trace = new ArrayList<int[]>();
+		int found = -1;
+		for (int d = 0; d <= maxD && found < 0; d++) {
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+					x = v[offset + k + 1];
+				} else {
+					x = v[offset + k - 1] + 1;
+				}
+				int y = x - k;
+				while (x < n && y < m && same(a[aStart + x], b[bStart + y])) {
+					x++;
+					y++;
+				}
+				v[offset + k] = x;
+				if (x >= n && y >= m) {
+					found = d;
+				}
+			}
+			// Keep only diagonals -d..d of this round for the backtrack.
+			int[] snapshot = new int[2 * d + 1];
+			System.arraycopy(v, offset - d, snapshot, 0, snapshot.length);
+			trace.add(snapshot);
+		}
+		if (found < 0) {
+			return false;
+		}
+
+		// Walk back from (n, m), recording edits from last to first.
+		int[] kinds = new int[found];
+		int[] xs = new int[found];
+		int[] ys = new int[found];
+		int x = n;
+		int y = m;
+		for (int d = found; d > 0; d--) {
+			int[] previous = trace.get(d - 1);
+			int k = x - y;
+			int prevK;
+			if (k == -d
+					|| (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d
+							- 1])) {
+				prevK = k + 1;
+			} else {
+				prevK = k - 1;
+			}
+			int prevX = previous[prevK + d - 1];
+			int prevY = prevX - prevK;
+			kinds[d - 1] = prevK == k + 1 ? 1 : 0;
+			xs[d - 1] = prevX;
+			ys[d - 1] = prevY;
+			x = prevX;
+			y = prevY;
+		}
+		for (int e = 0; e < found; e++) {
+			if (kinds[e] == 1) {
+				hunks.insert(aStart + xs[e], b[bStart + ys[e]]);
+			} else {
+				hunks.delete(aStart + xs[e]);
+			}
+		}
+		return true;
+	}
+
+	private static boolean same(String x, String y) {
+		return x == y || x.equals(y);
+	}
+
+	/**
+	 * Accumulates single-element edits, given in source order, into hunks.
+	 */
+	private static final class Hunks {
+		private final List<Integer> positions = new ArrayList<Integer>();
+		private final List<Integer> deleteCounts = new ArrayList<Integer>();
+		private final List<List<String>> insertions = new ArrayList<List<String>>();
+
+		void delete(int position) {
+			extend(position);
+			deleteCounts.set(last(), deleteCounts.get(last()) + 1);
+		}
+
+		void insert(int position, String value) {
+			extend(position);
+			insertions.get(last()).add(value);
+		}
+
+		void clear() {
+			positions.clear();
+			deleteCounts.clear();
+			insertions.clear();
+		}
+
+		/**
+		 * Start a new hunk at position unless the last hunk ends there.
+		 */
+		private void extend(int position) {
+			int last = last();
+			if (last < 0
+					|| positions.get(last) + deleteCounts.get(last) != position) {
+				positions.add(position);
+				deleteCounts.add(0);
+				insertions.add(new ArrayList<String>());
+			}
+		}
+
+		private int last() {
+			return positions.size() - 1;
+		}
+
+		SequencePatch toPatch(int sourceSize, int targetSize, int targetCursor) {
+			int count = positions.size();
+			int[] p = new int[count];
+			int[] dc = new int[count];
+			String[][] ins = new String[count][];
+			for (int i = 0; i < count; i++) {
+				p[i] = positions.get(i);
+				dc[i] = deleteCounts.get(i);
+				ins[i] = insertions.get(i).toArray(new String[0]);
+			}
+			return new SequencePatch(sourceSize, targetSize, targetCursor, p,
+					dc, ins);
+		}
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static final class Reader {
+		private final byte[] bytes;
+		private int position;
+
+		Reader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		int readInt() {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				value = (value << 8) | (next() & 0xFF);
+			}
+			return value;
+		}
+
+		int readVarInt() {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = next();
+				if (shift == 28 && (b & 0xF0) != 0) {
+					break;
+				}
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					if (value < 0) {
+						break;
+					}
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("malformed length at byte "
+					+ position);
+		}
+
+		String readString() {
+			int length = readVarInt();
+			if (length > bytes.length - position) {
+				throw new IllegalArgumentException("truncated SequencePatch");
+			}
+			String value = new String(bytes, position, length,
+					StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		boolean atEnd() {
+			return position == bytes.length;
+		}
+
+		int remaining() {
+			return bytes.length - position;
+		}
+
+		private byte next() {
+			if (position >= bytes.length) {
+				throw new IllegalArgumentException("truncated SequencePatch");
+			}
+			return bytes[position++];
+		}
+	}
+}
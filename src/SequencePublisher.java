@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the elements of a point-in-time snapshot of a Sequence, one at a
+ * time or in chunks, as fast as the subscriber requests them. Created by
+ * Sequence.publisher.
+ * 
+ * A publisher streams its snapshot once: the first subscriber takes the
+ * snapshot over, and later subscribers are sent an IllegalStateException. The
+ * subscription drops the snapshot as soon as it completes or is cancelled, so
+ * the snapshot can be collected while the subscriber is still around.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+abstract class SequencePublisher<T> implements SequenceFlow.Publisher<T> {
+	// ************************************************************************
+	// Invariant of the SequencePublisher class:
+	// (1) Until the first subscribe, elements[0] through elements[size - 1]
+	// hold the snapshot; afterwards elements is null and the snapshot belongs
+	// to the subscription.
+	// (2) The snapshot array is shared with the sequence it was taken from,
+	// which copies the array before changing it, so its first size elements
+	// never change.
+	// ************************************************************************
+	private String[] elements;
+	private final int size;
+	private final int step;
+
+	private SequencePublisher(String[] elements, int size, int step) {
+		this.elements = elements;
+		this.size = size;
+		this.step = step;
+	}
+
+	/**
+	 * @return a publisher of the first size strings in elements, one by one.
+	 */
+	static SequencePublisher<String> elements(String[] elements, int size) {
+		return new SequencePublisher<String>(elements, size, 1) {
+			String item(String[] snapshot, int from, int to) {
+				return snapshot[from];
+			}
+		};
+	}
+
+	/**
+	 * @return a publisher of the first size strings in elements, in lists of
+	 *         chunkSize strings; the last list may be shorter.
+	 */
+	static SequencePublisher<List<String>> chunks(String[] elements, int size,
+			int chunkSize) {
+		return new SequencePublisher<List<String>>(elements, size, chunkSize) {
+			List<String> item(String[] snapshot, int from, int to) {
+				return Collections.unmodifiableList(Arrays.asList(Arrays
+						.copyOfRange(snapshot, from, to)));
+			}
+		};
+	}
+
+	/**
+	 * @return the item made of snapshot[from] through snapshot[to - 1].
+	 */
+	abstract T item(String[] snapshot, int from, int to);
+
+	public void subscribe(SequenceFlow.Subscriber<? super T> subscriber) {
+		String[] snapshot;
+		synchronized (this) {
+			snapshot = elements;
+			elements = null;
+		}
+		if (snapshot == null) {
+			SnapshotSubscription spent = new SnapshotSubscription(subscriber,
+					null);
+			spent.cancelled = true;
+			subscriber.onSubscribe(spent);
+			subscriber.onError(new IllegalStateException(
+					"snapshot has already been streamed to a subscriber"));
+			return;
+		}
+		SnapshotSubscription subscription = new SnapshotSubscription(
+				subscriber, snapshot);
+		subscriber.onSubscribe(subscription);
+		// An empty snapshot completes without waiting for a request.
+		subscription.drain();
+	}
+
+	/**
+	 * Streams the snapshot to one subscriber. Whichever thread calls request
+	 * or cancel, only one thread at a time runs the delivery loop: wip counts
+	 * the calls to drain that still have to be served.
+	 */
+	private final class SnapshotSubscription implements
+			SequenceFlow.Subscription {
+		private final SequenceFlow.Subscriber<? super T> subscriber;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		private String[] snapshot;
+		private int position;
+
+		SnapshotSubscription(SequenceFlow.Subscriber<? super T> subscriber,
+				String[] snapshot) {
+			this.subscriber = subscriber;
+			this.snapshot = snapshot;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				if (!cancelled) {
+					cancel();
+					subscriber.onError(new IllegalArgumentException(
+							"non-positive request: " + n));
+				}
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = requested.get();
+				next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			} while (!requested.compareAndSet(current, next));
+			drain();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+
+		void drain() {
+			if (wip.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			do {
+				long wanted = requested.get();
+				long emitted = 0;
+				while (emitted != wanted && !cancelled && position < size) {
+					int to = Math.min(size, position + step);
+					T next = item(snapshot, position, to);
+					position = to;
+					emitted++;
+					subscriber.onNext(next);
+				}
+				if (cancelled) {
+					snapshot = null;
+					return;
+				}
+				if (position >= size) {
+					snapshot = null;
+					cancelled = true;
+					subscriber.onComplete();
+					return;
+				}
+				if (emitted != 0 && wanted != Long.MAX_VALUE)
+					requested.addAndGet(-emitted);
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+}
@@ -0,0 +1,551 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Allocation and complexity regression checks for Sequence. Every public
+ * operation is timed at a problem size n and at 4n, and the ratio of the two
+ * timings is compared with the operation's expected growth: constant-time
+ * operations should stay flat and linear ones should grow about fourfold, so
+ * an operation that turned quadratic (sixteenfold) fails. Linear operations
+ * are allowed up to threefold that, since the larger size falls out of a
+ * cache level the smaller one fits in. Operations that
+ * should not allocate, or should allocate only their result, are also checked
+ * against a byte budget measured with the thread allocation counter.
+ *
+ * Exits with status 1 if any check fails, so it can gate a build. The whole
+ * suite runs in a few seconds.
+ */
+public class SequenceRegressionTests {
+
+	/** The smaller problem size; every operation is also timed at 4 * SIZE. */
+	private static final int SIZE = 1 << 13;
+
+	/** How many times a constant-time operation is repeated per run. */
+	private static final int CALLS = 1 << 12;
+
+	/** Each timed sample runs for at least this long at the smaller size. */
+	private static final long SAMPLE_NANOS = 2000000;
+
+	/** Each operation runs for this long at each size before it is timed. */
+	private static final long WARMUP_NANOS = 50000000;
+
+	/**
+	 * Both sizes are timed this many times, alternately; the median of the
+	 * rounds' ratios is taken.
+	 */
+	private static final int ROUNDS = 5;
+
+	/** The best of this many samples is taken as the timing of a round. */
+	private static final int SAMPLES = 3;
+
+	/**
+	 * A failing scaling check is measured again this many times, and the best
+	 * attempt counts.
+	 */
+	private static final int ATTEMPTS = 3;
+
+	private static final List<String> failures = new ArrayList<String>();
+
+	/** Results are folded in here so that the JIT cannot drop the calls. */
+	private static long sink;
+
+	public static void main(String[] args) {
+		System.out.println("Starting Regression Tests");
+		long start = System.nanoTime();
+
+		for (Operation operation : operations()) {
+			checkScaling(operation);
+			checkAllocation(operation);
+		}
+
+		System.out.printf("%nRegression Tests Complete in %.1f s (sink %d)%n",
+				(System.nanoTime() - start) / 1e9, sink & 1);
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " regression(s):");
+			for (String failure : failures)
+				System.out.println("  " + failure);
+			System.exit(1);
+		}
+	}
+
+	/** How the running time of an operation grows with the sequence size. */
+	private enum Growth {
+		CONSTANT(2.5), LINEAR(12.0);
+
+		/** The largest acceptable time(4n) / time(n). */
+		final double maxRatio;
+
+		Growth(double maxRatio) {
+			this.maxRatio = maxRatio;
+		}
+	}
+
+	/**
+	 * One operation under test. prepare builds the state for a problem size,
+	 * and run performs the operation on it: CALLS times for a constant-time
+	 * operation, once for a linear one. run must leave the state as it found
+	 * it, so that it can be repeated.
+	 */
+	private abstract static class Operation {
+		final String name;
+		final Growth growth;
+		Sequence sequence;
+
+		Operation(String name, Growth growth) {
+			this.name = name;
+			this.growth = growth;
+		}
+
+		void prepare(int n) {
+			sequence = filled(n);
+		}
+
+		abstract void run();
+
+		/**
+		 * @return the number of bytes one run may allocate at size n; by
+		 *         default, none.
+		 */
+		long allowedBytes(int n) {
+			return 0;
+		}
+	}
+
+	private static Sequence filled(int n) {
+		String[] values = new String[n];
+		for (int i = 0; i < n; i++)
+			values[i] = "element-" + i;
+		Sequence s = new Sequence(n);
+		s.addAll(values, 0, n);
+		return s;
+	}
+
+	/**
+	 * @return the bytes of a copy of an n-element backing array, with slack
+	 *         for the Sequence object and its bookkeeping and 1/64 of the
+	 *         array for the imprecision of the thread allocation counter.
+	 */
+	private static long copyBytes(int n) {
+		long array = SequenceMemory.arrayBytes(n);
+		return array + array / 64 + 512;
+	}
+
+	private static List<Operation> operations() {
+		List<Operation> operations = new ArrayList<Operation>();
+
+		operations.add(new Operation("addAfter + removeCurrent at the end",
+				Growth.CONSTANT) {
+			void prepare(int n) {
+				super.prepare(n);
+				// Without a current element, addAfter appends.
+				while (sequence.isCurrent())
+					sequence.advance();
+			}
+
+			void run() {
+				for (int i = 0; i < CALLS; i++) {
+					sequence.addAfter("x");
+					sequence.removeCurrent();
+				}
+			}
+		});
+		operations.add(new Operation("start + advance", Growth.CONSTANT) {
+			void run() {
+				sequence.start();
+				for (int i = 0; i < CALLS; i++)
+					sequence.advance();
+			}
+		});
+		operations.add(new Operation(
+				"getCurrent, isCurrent, size, getCapacity", Growth.CONSTANT) {
+			void prepare(int n) {
+				super.prepare(n);
+				sequence.start();
+			}
+
+			void run() {
+				long sum = 0;
+				for (int i = 0; i < CALLS; i++) {
+					if (sequence.isCurrent())
+						sum += sequence.getCurrent().length();
+					sum += sequence.size() + sequence.getCapacity();
+				}
+				sink += sum;
+			}
+		});
+		operations.add(new Operation("getRetainedBytes", Growth.CONSTANT) {
+			void run() {
+				long sum = 0;
+				for (int i = 0; i < CALLS; i++)
+					sum += sequence.getRetainedBytes();
+				sink += sum;
+			}
+		});
+		operations.add(new Operation("addBefore + removeCurrent in the middle",
+				Growth.LINEAR) {
+			void prepare(int n) {
+				super.prepare(n);
+				sequence.start();
+				for (int i = 0; i < n / 2; i++)
+					sequence.advance();
+			}
+
+			void run() {
+				sequence.addBefore("x");
+				sequence.removeCurrent();
+			}
+		});
+		operations.add(new Operation("addAll(Sequence)", Growth.LINEAR) {
+			void run() {
+				Sequence target = new Sequence();
+				target.addAll(sequence);
+				sink += target.size();
+			}
+
+			long allowedBytes(int n) {
+				return copyBytes(10) + copyBytes(n);
+			}
+		});
+		operations.add(new Operation("addAll(String[], int, int)",
+				Growth.LINEAR) {
+			String[] values;
+
+			void prepare(int n) {
+				super.prepare(n);
+				values = sequence.toArray();
+			}
+
+			void run() {
+				Sequence target = new Sequence(0);
+				target.addAll(values, 0, values.length);
+				sink += target.size();
+			}
+
+			long allowedBytes(int n) {
+				return copyBytes(n);
+			}
+		});
+		operations.add(new Operation("clone", Growth.LINEAR) {
+			void run() {
+				sink += sequence.clone().size();
+			}
+
+			long allowedBytes(int n) {
+				return copyBytes(n);
+			}
+		});
+		operations.add(new Operation("concatenation", Growth.LINEAR) {
+			void run() {
+				sink += Sequence.concatenation(sequence, sequence).size();
+			}
+
+			long allowedBytes(int n) {
+				return copyBytes(2 * n);
+			}
+		});
+		operations.add(new Operation("equals", Growth.LINEAR) {
+			Sequence other;
+
+			void prepare(int n) {
+				super.prepare(n);
+				other = filled(n);
+			}
+
+			void run() {
+				if (sequence.equals(other))
+					sink++;
+			}
+		});
+		operations.add(new Operation("compareTo", Growth.LINEAR) {
+			Sequence other;
+
+			void prepare(int n) {
+				super.prepare(n);
+				other = filled(n);
+			}
+
+			void run() {
+				sink += sequence.compareTo(other);
+			}
+		});
+		operations.add(new Operation("mismatch", Growth.LINEAR) {
+			Sequence other;
+
+			void prepare(int n) {
+				super.prepare(n);
+				other = filled(n);
+			}
+
+			void run() {
+				sink += sequence.mismatch(other);
+			}
+		});
+		operations.add(new Operation("commonPrefixLength", Growth.LINEAR) {
+			Sequence other;
+
+			void prepare(int n) {
+				super.prepare(n);
+				other = filled(n);
+			}
+
+			void run() {
+				sink += sequence.commonPrefixLength(other);
+			}
+		});
+		operations.add(new Operation("commonSuffixLength", Growth.LINEAR) {
+			Sequence other;
+
+			void prepare(int n) {
+				super.prepare(n);
+				other = filled(n);
+			}
+
+			void run() {
+				sink += sequence.commonSuffixLength(other);
+			}
+		});
+		operations.add(new Operation("release + addAll with an array pool",
+				Growth.LINEAR) {
+			String[] values;
+
+			void prepare(int n) {
+				super.prepare(n);
+				values = sequence.toArray();
+				sequence.setArrayPool(new SequenceArrayPool(8L * n));
+			}
+
+			void run() {
+				sequence.release();
+				sequence.addAll(values, 0, values.length);
+			}
+
+			long allowedBytes(int n) {
+				// The backing array comes back from the pool every time.
+				return 256;
+			}
+		});
+		operations.add(new Operation("publisher + addAfter at the end",
+				Growth.LINEAR) {
+			void prepare(int n) {
+				super.prepare(n);
+				sequence.ensureCapacity(n + 1);
+				while (sequence.isCurrent())
+					sequence.advance();
+			}
+
+			void run() {
+				sink += sequence.publisher().hashCode();
+				sequence.addAfter("x");
+				sequence.removeCurrent();
+			}
+
+			long allowedBytes(int n) {
+				// The copy the snapshot forces, and the publisher itself.
+				return copyBytes(n + 1);
+			}
+		});
+		operations.add(new Operation("addListener + removeListener",
+				Growth.CONSTANT) {
+			final SequenceListener listener = new SequenceListener() {
+			};
+
+			void run() {
+				for (int i = 0; i < CALLS; i++) {
+					sequence.addListener(listener);
+					sequence.removeListener(listener);
+				}
+			}
+
+			long allowedBytes(int n) {
+				// At most a one-element listener array per call.
+				return SequenceMemory.arrayBytes(1) * CALLS;
+			}
+		});
+		operations.add(new Operation("ensureCapacity + trimToSize",
+				Growth.LINEAR) {
+			void run() {
+				sequence.ensureCapacity(sequence.size() + 1);
+				sequence.trimToSize();
+			}
+
+			long allowedBytes(int n) {
+				return copyBytes(n + 1) + copyBytes(n);
+			}
+		});
+		operations.add(new Operation("toString", Growth.LINEAR) {
+			void run() {
+				sink += sequence.toString().length();
+			}
+
+			long allowedBytes(int n) {
+				// Builder growth plus the final copy; each element prints as
+				// "element-12345, ", at most 2 bytes per char.
+				return 6L * 2 * 16 * n + 1024;
+			}
+		});
+		operations.add(new Operation("diff of equal sequences",
+				Growth.LINEAR) {
+			Sequence other;
+
+			void prepare(int n) {
+				super.prepare(n);
+				other = filled(n);
+			}
+
+			void run() {
+				sink += Sequence.diff(sequence, other).getHunkCount();
+			}
+
+			long allowedBytes(int n) {
+				// The patch and its empty hunk arrays; nothing per element.
+				return 256;
+			}
+		});
+		operations.add(new Operation("apply of a one-element patch",
+				Growth.LINEAR) {
+			SequencePatch forward;
+			SequencePatch backward;
+
+			void prepare(int n) {
+				super.prepare(n);
+				Sequence edited = sequence.clone();
+				edited.start();
+				edited.addAfter("edited");
+				forward = Sequence.diff(sequence, edited);
+				backward = Sequence.diff(edited, sequence);
+			}
+
+			void run() {
+				sequence.apply(forward);
+				sequence.apply(backward);
+			}
+
+			long allowedBytes(int n) {
+				return copyBytes(n + 1) + copyBytes(n);
+			}
+		});
+		operations.add(new Operation("deduplicate", Growth.LINEAR) {
+			void run() {
+				sink += sequence.deduplicate();
+			}
+
+			long allowedBytes(int n) {
+				// A HashMap entry per distinct element and its table.
+				return 64L * n + 1024;
+			}
+		});
+		return operations;
+	}
+
+	/**
+	 * @return the best time, in nanoseconds, of SAMPLES samples of reps runs
+	 *         of the operation.
+	 */
+	private static long time(Operation operation, int reps) {
+		long best = Long.MAX_VALUE;
+		for (int sample = 0; sample < SAMPLES; sample++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < reps; i++)
+				operation.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	/**
+	 * Run the operation at size n for WARMUP_NANOS, so that it is compiled
+	 * before it is timed, and leave it prepared for that size.
+	 */
+	private static void warmUp(Operation operation, int n) {
+		operation.prepare(n);
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < WARMUP_NANOS)
+			operation.run();
+	}
+
+	/**
+	 * @return how many runs of the operation at its current size take at
+	 *         least SAMPLE_NANOS; running them also warms up the JIT.
+	 */
+	private static int calibrate(Operation operation) {
+		int reps = 1;
+		while (true) {
+			long start = System.nanoTime();
+			for (int i = 0; i < reps; i++)
+				operation.run();
+			if (System.nanoTime() - start >= SAMPLE_NANOS || reps >= 1 << 20)
+				return reps;
+			reps *= 2;
+		}
+	}
+
+	private static void checkScaling(Operation operation) {
+		double ratio = Double.MAX_VALUE;
+		warmUp(operation, 4 * SIZE);
+		warmUp(operation, SIZE);
+		int reps = calibrate(operation);
+		double[] ratios = new double[ROUNDS];
+		for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+			// Alternate the sizes so that a JIT recompilation or a GC pause
+			// during one round does not decide the ratio.
+			for (int round = 0; round < ROUNDS; round++) {
+				operation.prepare(SIZE);
+				long small = time(operation, reps);
+				operation.prepare(4 * SIZE);
+				long large = time(operation, reps);
+				ratios[round] = (double) large / Math.max(1, small);
+			}
+			Arrays.sort(ratios);
+			ratio = Math.min(ratio, ratios[ROUNDS / 2]);
+			if (ratio <= operation.growth.maxRatio)
+				break;
+		}
+		boolean passed = ratio <= operation.growth.maxRatio;
+		System.out.printf("%-44s %-8s time(4n)/time(n) = %5.2f %s%n",
+				operation.name, operation.growth, ratio, passed ? "ok"
+						: "FAIL");
+		if (!passed) {
+			failures.add(String.format(
+					"%s: time grew %.2fx from n=%d to n=%d, expected %s",
+					operation.name, ratio, SIZE, 4 * SIZE, operation.growth));
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated so far by the calling thread, as
+	 *         reported by HotSpot; the difference between two calls measures
+	 *         what the code between them allocated.
+	 */
+	static long threadAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+
+	private static void checkAllocation(Operation operation) {
+		int n = 4 * SIZE;
+		operation.prepare(n);
+		for (int i = 0; i < 3; i++)
+			operation.run();
+		long overhead = threadAllocatedBytes();
+		overhead = threadAllocatedBytes() - overhead;
+
+		int runs = 16;
+		long before = threadAllocatedBytes();
+		for (int i = 0; i < runs; i++)
+			operation.run();
+		long perRun = (threadAllocatedBytes() - before - overhead)
+				/ runs;
+		long allowed = operation.allowedBytes(n);
+		boolean passed = perRun <= allowed;
+		System.out.printf("%-44s %-8s bytes per run = %d (allowed %d) %s%n",
+				operation.name, "", perRun, allowed, passed ? "ok" : "FAIL");
+		if (!passed) {
+			failures.add(String.format(
+					"%s: allocated %d bytes per run at n=%d, allowed %d",
+					operation.name, perRun, n, allowed));
+		}
+	}
+}
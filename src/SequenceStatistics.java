@@ -0,0 +1,539 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate statistics of the elements of a Sequence, kept up to date as a
+ * listener so that they can be read at any time without a pass over the data:
+ *
+ * - the number of distinct elements, estimated with a HyperLogLog sketch of
+ * 2^precision one-byte registers (a standard error of about 1.04 /
+ * sqrt(2^precision), 0.8% at the default precision of 14);
+ *
+ * - the most frequent elements, tracked with the space-saving algorithm in
+ * capacity counters; every element occurring more than size() / capacity
+ * times is tracked, and each count overestimates the true count by at most
+ * its error;
+ *
+ * - the exact distribution of element lengths, in power-of-two buckets.
+ *
+ * Each insertion and appended element costs O(1) in the size of the sequence.
+ * Removal is handled as well as each sketch allows: the length histogram stays
+ * exact, a tracked element's count goes down by one, but a HyperLogLog sketch
+ * cannot forget an element, so the distinct count includes elements that have
+ * since been removed. recompute rebuilds everything from the current contents
+ * in one pass; replacing the whole contents of the sequence, as apply does,
+ * recomputes automatically.
+ *
+ * Statistics with the same precision and capacity can be merged. When two
+ * sequences are concatenated and either has statistics attached, the result
+ * gets statistics merged from both; the elements of an operand without
+ * statistics are counted in one pass.
+ *
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class SequenceStatistics implements SequenceListener {
+	// ************************************************************************
+	// Invariant of the SequenceStatistics class:
+	// (1) registers[j] is the largest rank seen among the hashes of added
+	// elements whose first precision bits are j, where the rank is the
+	// position of the first 1 bit in the remaining bits.
+	// (2) heap[0, counterCount) is a binary min-heap of the tracked counters
+	// ordered by count, heap[i].heapIndex == i, and counters maps each tracked
+	// element to its counter.
+	// (3) lengths[b] is the number of elements whose length needs b bits
+	// (bucket 0 holds empty strings), elements is their total number and
+	// totalLength the sum of their lengths.
+	// ************************************************************************
+	public static final int DEFAULT_PRECISION = 14;
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private static final Comparator<Counter> MOST_FREQUENT_FIRST =
+			new Comparator<Counter>() {
+		public int compare(Counter a, Counter b) {
+			return Long.compare(b.count, a.count);
+		}
+	};
+
+	private final int precision;
+	private final int capacity;
+	private Sequence sequence;
+
+	private final byte[] registers;
+
+	private final Map<String, Counter> counters;
+	private final Counter[] heap;
+	private int counterCount;
+
+	private final long[] lengths = new long[32];
+	private long elements;
+	private long totalLength;
+
+	/**
+	 * Initialize empty statistics that are not attached to a sequence. They
+	 * can be filled with add and merge.
+	 *
+	 * @param precision
+	 *            the number of bits of each hash that select a HyperLogLog
+	 *            register, between 4 and 18.
+	 * @param capacity
+	 *            the number of most frequent elements tracked.
+	 * @exception IllegalArgumentException
+	 *                Indicates that precision is out of range or capacity is
+	 *                not positive.
+	 */
+	public SequenceStatistics(int precision, int capacity) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException(
+					"precision is not between 4 and 18: " + precision);
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity is not positive: "
+					+ capacity);
+		}
+		this.precision = precision;
+		this.capacity = capacity;
+		this.registers = new byte[1 << precision];
+		this.counters = new HashMap<String, Counter>(capacity * 2);
+		this.heap = new Counter[capacity];
+	}
+
+	/**
+	 * Initialize statistics over the current contents of a sequence, with the
+	 * default precision and capacity, and attach them to the sequence.
+	 *
+	 * @param sequence
+	 *            the sequence to describe.
+	 */
+	public SequenceStatistics(Sequence sequence) {
+		this(sequence, DEFAULT_PRECISION, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initialize statistics over the current contents of a sequence and attach
+	 * them to the sequence.
+	 *
+	 * @param sequence
+	 *            the sequence to describe.
+	 * @param precision
+	 *            the number of bits of each hash that select a HyperLogLog
+	 *            register, between 4 and 18.
+	 * @param capacity
+	 *            the number of most frequent elements tracked.
+	 * @postcondition The statistics reflect every later change to the
+	 *                sequence until they are closed.
+	 */
+	public SequenceStatistics(Sequence sequence, int precision, int capacity) {
+		this(precision, capacity);
+		addAll(sequence);
+		attach(sequence);
+	}
+
+	/**
+	 * @param sequence
+	 *            a sequence.
+	 * @return the statistics attached to sequence, or null if it has none.
+	 */
+	public static SequenceStatistics of(Sequence sequence) {
+		return sequence.listener(SequenceStatistics.class);
+	}
+
+	/**
+	 * Detach the statistics from their sequence. They keep their values and
+	 * can still be read and merged.
+	 */
+	public void close() {
+		if (sequence != null) {
+			sequence.removeListener(this);
+			sequence = null;
+		}
+	}
+
+	/**
+	 * Count one more element.
+	 *
+	 * @param value
+	 *            the element.
+	 */
+	public void add(String value) {
+		long hash = hash(value);
+		int register = (int) (hash >>> (64 - precision));
+		int rank = Long.numberOfLeadingZeros((hash << precision)
+				| (1L << (precision - 1))) + 1;
+		if (rank > registers[register])
+			registers[register] = (byte) rank;
+
+		Counter counter = counters.get(value);
+		if (counter != null) {
+			counter.count++;
+			siftDown(counter.heapIndex);
+		} else if (counterCount < capacity) {
+			counter = new Counter(value, 1, 0);
+			counters.put(value, counter);
+			heap[counterCount] = counter;
+			counter.heapIndex = counterCount++;
+			siftUp(counter.heapIndex);
+		} else {
+			// The least frequent counter is taken over; its count bounds how
+			// often the new element may already have occurred.
+			counter = heap[0];
+			counters.remove(counter.value);
+			counter.value = value;
+			counter.error = counter.count;
+			counter.count++;
+			counters.put(value, counter);
+			siftDown(0);
+		}
+
+		lengths[bucket(value.length())]++;
+		elements++;
+		totalLength += value.length();
+	}
+
+	/**
+	 * Count one element less. The distinct count does not change.
+	 *
+	 * @param value
+	 *            the element, which must have been counted.
+	 */
+	public void remove(String value) {
+		Counter counter = counters.get(value);
+		if (counter != null) {
+			counter.count--;
+			if (counter.count <= counter.error) {
+				// Nothing is known to remain of the element.
+				removeCounter(counter);
+			} else {
+				siftUp(counter.heapIndex);
+			}
+		}
+		lengths[bucket(value.length())]--;
+		elements--;
+		totalLength -= value.length();
+	}
+
+	/**
+	 * Fold other statistics into these, as if every element counted by other
+	 * had been added here.
+	 *
+	 * @param other
+	 *            the statistics to merge in.
+	 * @exception IllegalArgumentException
+	 *                Indicates that other has a different precision or
+	 *                capacity.
+	 */
+	public void merge(SequenceStatistics other) {
+		if (other.precision != precision || other.capacity != capacity) {
+			throw new IllegalArgumentException(
+					"cannot merge statistics of precision " + other.precision
+							+ " and capacity " + other.capacity
+							+ " into precision " + precision + " and capacity "
+							+ capacity);
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i])
+				registers[i] = other.registers[i];
+		}
+
+		// An element missing from a full summary may have occurred up to its
+		// minimum count times there.
+		long missingHere = counterCount == capacity ? heap[0].count : 0;
+		long missingThere = other.counterCount == other.capacity
+				? other.heap[0].count : 0;
+		Map<String, Counter> union = new HashMap<String, Counter>();
+		for (int i = 0; i < counterCount; i++) {
+			Counter c = heap[i];
+			union.put(c.value, new Counter(c.value, c.count + missingThere,
+					c.error + missingThere));
+		}
+		for (int i = 0; i < other.counterCount; i++) {
+			Counter c = other.heap[i];
+			Counter mine = union.get(c.value);
+			if (mine == null) {
+				union.put(c.value, new Counter(c.value, c.count + missingHere,
+						c.error + missingHere));
+			} else {
+				mine.count += c.count - missingThere;
+				mine.error += c.error - missingThere;
+			}
+		}
+		List<Counter> merged = new ArrayList<Counter>(union.values());
+		Collections.sort(merged, MOST_FREQUENT_FIRST);
+		counters.clear();
+		counterCount = 0;
+		for (Counter c : merged.subList(0, Math.min(capacity, merged.size()))) {
+			counters.put(c.value, c);
+			heap[counterCount] = c;
+			c.heapIndex = counterCount++;
+			siftUp(c.heapIndex);
+		}
+
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] += other.lengths[i];
+		elements += other.elements;
+		totalLength += other.totalLength;
+	}
+
+	/**
+	 * @return a copy of these statistics that is not attached to a sequence.
+	 */
+	public SequenceStatistics copy() {
+		SequenceStatistics copy = new SequenceStatistics(precision, capacity);
+		copy.merge(this);
+		return copy;
+	}
+
+	/**
+	 * Forget everything counted so far and count the current contents of the
+	 * attached sequence again, dropping removed elements from the distinct
+	 * count.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that the statistics are not attached to a
+	 *                sequence.
+	 */
+	public void recompute() {
+		if (sequence == null) {
+			throw new IllegalStateException(
+					"SequenceStatistics is not attached to a sequence.");
+		}
+		clear();
+		addAll(sequence);
+	}
+
+	/**
+	 * @return the estimated number of distinct elements counted.
+	 */
+	public long getDistinctCount() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0)
+				zeros++;
+		}
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709
+				: 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			// Small cardinalities: count the empty registers instead.
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * @param k
+	 *            the number of elements wanted.
+	 * @return up to k of the most frequent elements, most frequent first.
+	 */
+	public List<String> getTopValues(int k) {
+		Counter[] sorted = Arrays.copyOf(heap, counterCount);
+		Arrays.sort(sorted, MOST_FREQUENT_FIRST);
+		List<String> top = new ArrayList<String>();
+		for (int i = 0; i < Math.min(k, sorted.length); i++)
+			top.add(sorted[i].value);
+		return top;
+	}
+
+	/**
+	 * @param value
+	 *            an element.
+	 * @return an upper bound on the number of times value occurs, or 0 if it
+	 *         is not among the tracked elements.
+	 */
+	public long getFrequency(String value) {
+		Counter counter = counters.get(value);
+		return counter == null ? 0 : counter.count;
+	}
+
+	/**
+	 * @param value
+	 *            an element.
+	 * @return how much getFrequency(value) may overestimate the true count.
+	 */
+	public long getFrequencyError(String value) {
+		Counter counter = counters.get(value);
+		return counter == null ? 0 : counter.error;
+	}
+
+	/**
+	 * @return the number of elements with each length: entry 0 counts empty
+	 *         strings and entry b counts lengths from 2^(b-1) to 2^b - 1.
+	 */
+	public long[] getLengthHistogram() {
+		int used = lengths.length;
+		while (used > 1 && lengths[used - 1] == 0)
+			used--;
+		return Arrays.copyOf(lengths, used);
+	}
+
+	/**
+	 * @return the average length of the elements, or 0 if there are none.
+	 */
+	public double getMeanLength() {
+		return elements == 0 ? 0 : (double) totalLength / elements;
+	}
+
+	/**
+	 * @return the number of elements counted.
+	 */
+	public long getElementCount() {
+		return elements;
+	}
+
+	public void inserted(Sequence sequence, int index, String value) {
+		add(value);
+	}
+
+	public void removed(Sequence sequence, int index, String value) {
+		remove(value);
+	}
+
+	public void addedAll(Sequence sequence, int index, String[] values,
+			int offset, int length) {
+		for (int i = 0; i < length; i++)
+			add(values[offset + i]);
+	}
+
+	public void replaced(Sequence sequence) {
+		recompute();
+	}
+
+	public void concatenated(Sequence first, Sequence second, Sequence result) {
+		if (of(result) != null)
+			return;
+		SequenceStatistics merged = new SequenceStatistics(precision, capacity);
+		merged.mergeOrAdd(first);
+		merged.mergeOrAdd(second);
+		merged.attach(result);
+	}
+
+	private void attach(Sequence sequence) {
+		this.sequence = sequence;
+		sequence.addListener(this);
+	}
+
+	/**
+	 * Merge in the statistics attached to s if they are compatible, and count
+	 * the elements of s otherwise.
+	 */
+	private void mergeOrAdd(Sequence s) {
+		SequenceStatistics attached = of(s);
+		if (attached != null && attached.precision == precision
+				&& attached.capacity == capacity)
+			merge(attached);
+		else
+			addAll(s);
+	}
+
+	private void addAll(Sequence s) {
+		int n = s.size();
+		for (int i = 0; i < n; i++)
+			add(s.elementAt(i));
+	}
+
+	private void clear() {
+		Arrays.fill(registers, (byte) 0);
+		counters.clear();
+		Arrays.fill(heap, null);
+		counterCount = 0;
+		Arrays.fill(lengths, 0);
+		elements = 0;
+		totalLength = 0;
+	}
+
+	private void removeCounter(Counter counter) {
+		counters.remove(counter.value);
+		int i = counter.heapIndex;
+		Counter last = heap[--counterCount];
+		heap[counterCount] = null;
+		if (i < counterCount) {
+			heap[i] = last;
+			last.heapIndex = i;
+			siftDown(i);
+			siftUp(last.heapIndex);
+		}
+	}
+
+	private void siftUp(int i) {
+		Counter counter = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent].count <= counter.count)
+				break;
+			heap[i] = heap[parent];
+			heap[i].heapIndex = i;
+			i = parent;
+		}
+		heap[i] = counter;
+		counter.heapIndex = i;
+	}
+
+	private void siftDown(int i) {
+		Counter counter = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= counterCount)
+				break;
+			if (child + 1 < counterCount
+					&& heap[child + 1].count < heap[child].count)
+				child++;
+			if (heap[child].count >= counter.count)
+				break;
+			heap[i] = heap[child];
+			heap[i].heapIndex = i;
+			i = child;
+		}
+		heap[i] = counter;
+		counter.heapIndex = i;
+	}
+
+	/**
+	 * @return the histogram bucket of a length: the number of bits it needs.
+	 */
+	private static int bucket(int length) {
+		return 32 - Integer.numberOfLeadingZeros(length);
+	}
+
+	/**
+	 * @return a 64-bit hash of the characters of value: FNV-1a followed by
+	 *         the MurmurHash3 finalizer, which spreads it over every bit.
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * A space-saving counter: an element, how often it was counted, and how
+	 * much of that count may belong to elements it replaced.
+	 */
+	private static final class Counter {
+		String value;
+		long count;
+		long error;
+		int heapIndex;
+
+		Counter(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+	}
+}
@@ -1,3 +1,10 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 /*
  * Collection of methods to test if Sequence.java is working properly.
  */
@@ -23,6 +30,21 @@ public class SequenceTests {
 		testTrimToSize();
 		testSize();
 		testPrinting();
+		testAddAllArray();
+		testSequenceWriter();
+		testDiffAndApply();
+		testChangeFeed();
+		testPublisher();
+		testLoader();
+		testInterning();
+		testArrayPool();
+		testMemoryAccounting();
+		testMetrics();
+		testIndex();
+		testStatistics();
+		testShardedSequence();
+		testComparison();
+		testDurableSequence();
 
 		// Tests end here.
 		System.out.println("Tests Complete");
@@ -529,4 +551,1275 @@ public class SequenceTests {
 				"print-out of a non-empty sequence with no current element",
 				"{A, B, C, D, E, F, G} (capacity = 10)", s1.toString());
 	}
+
+	private static void testAddAllArray() {
+		Testing.testSection("Testing addAll(String[], int, int)");
+		Sequence s1 = new Sequence(2);
+		s1.addAfter("A");
+
+		String[] letters = { "X", "B", "C", "D", "Y" };
+		s1.addAll(letters, 1, 3);
+		Testing.assertEquals("appends the range and keeps the current element",
+				"{>A, B, C, D} (capacity = 4)", s1.toString());
+
+		s1.addAll(letters, 0, 0);
+		Testing.assertEquals("empty range changes nothing",
+				"{>A, B, C, D} (capacity = 4)", s1.toString());
+
+		boolean thrown = false;
+		try {
+			s1.addAll(letters, 4, 2);
+		} catch (IndexOutOfBoundsException e) {
+			thrown = true;
+		}
+		Testing.assertEquals("range past the end of the array is rejected",
+				true, thrown);
+	}
+
+	private static void testSequenceWriter() {
+		Testing.testSection("Testing SequenceWriter");
+		final Sequence s1 = new Sequence();
+		final SequenceWriter writer = new SequenceWriter(s1, 16, 8, 1);
+		final int producers = 4;
+		final int perProducer = 250;
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final String name = "p" + p;
+			threads[p] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int i = 0; i < perProducer; i++)
+							writer.write(name + "-" + i);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			threads[p].start();
+		}
+		try {
+			for (Thread t : threads)
+				t.join();
+			writer.flush();
+			Testing.assertEquals("flush applies every queued string",
+					producers * perProducer, s1.size());
+			writer.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		Testing.assertEquals("applied count matches size", s1.size(),
+				(int) writer.getAppliedCount());
+		Testing.assertEquals("batches never exceed the batch size", true,
+				writer.getLargestBatchSize() <= 8);
+		Testing.assertEquals("no batch is empty", true,
+				writer.getBatchCount() <= writer.getAppliedCount());
+
+		boolean thrown = false;
+		try {
+			writer.write("late");
+		} catch (IllegalStateException e) {
+			thrown = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Testing.assertEquals("write after close is rejected", true, thrown);
+
+		// Closing while the drainer lingers for a fuller batch keeps the
+		// strings it has already collected.
+		Sequence s2 = new Sequence();
+		SequenceWriter lingering = new SequenceWriter(s2, 16, 100, 10000);
+		try {
+			long start = System.nanoTime();
+			lingering.write("x");
+			lingering.write("y");
+			Thread.sleep(20);
+			lingering.close();
+			Testing.assertEquals("close during a linger applies every write",
+					"{>x, y} (capacity = 10)", s2.toString());
+			Testing.assertEquals("close cuts the linger short", true,
+					System.nanoTime() - start < 5000000000L);
+			lingering.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// A timed write that gives up does not leave flush waiting for it.
+		final Sequence s4 = new Sequence();
+		final SequenceWriter full = new SequenceWriter(s4, 1, 1, 0);
+		Thread timedOut = new Thread(new Runnable() {
+			public void run() {
+				try {
+					full.write("c", 200,
+							java.util.concurrent.TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		Thread flusher = new Thread(new Runnable() {
+			public void run() {
+				try {
+					full.flush();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		try {
+			synchronized (s4) {
+				// The drainer takes "a" and blocks on s4; "b" fills the queue.
+				full.write("a");
+				Thread.sleep(100);
+				full.write("b");
+				timedOut.start();
+				Thread.sleep(50);
+				flusher.setDaemon(true);
+				flusher.start();
+				timedOut.join();
+			}
+			flusher.join(5000);
+			Testing.assertEquals("flush returns after a timed write gives up",
+					false, flusher.isAlive());
+			Testing.assertEquals("the strings that were queued are applied",
+					"{>a, b} (capacity = 10)", s4.toString());
+			full.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// A failing append is reported instead of hanging flush.
+		Sequence s3 = new Sequence();
+		s3.addListener(new SequenceListener() {
+			public void addedAll(Sequence sequence, int index,
+					String[] values, int offset, int length) {
+				throw new IllegalStateException("over budget");
+			}
+		});
+		SequenceWriter failing = new SequenceWriter(s3, 16, 8, 0);
+		boolean flushThrew = false;
+		boolean writeThrew = false;
+		boolean closeThrew = false;
+		try {
+			failing.write("doomed");
+			try {
+				failing.flush();
+			} catch (IllegalStateException e) {
+				flushThrew = e.getCause().getMessage().equals("over budget");
+			}
+			try {
+				failing.write("later");
+			} catch (IllegalStateException e) {
+				writeThrew = true;
+			}
+			try {
+				failing.close();
+			} catch (IllegalStateException e) {
+				closeThrew = true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Testing.assertEquals("flush rethrows the append failure", true,
+				flushThrew);
+		Testing.assertEquals("write after a failure is rejected", true,
+				writeThrew);
+		Testing.assertEquals("close rethrows the append failure", true,
+				closeThrew);
+	}
+
+	private static void testDiffAndApply() {
+		Testing.testSection("Testing diff() and apply()");
+		Sequence a = new Sequence();
+		String[] letters = { "A", "B", "C", "D", "E", "F" };
+		for (String s : letters)
+			a.addAfter(s);
+
+		Sequence b = a.clone();
+		b.start();
+		b.advance();
+		b.removeCurrent();
+		b.advance();
+		b.addAfter("X");
+		b.addAfter("Y");
+
+		SequencePatch patch = Sequence.diff(a, b);
+		Testing.assertEquals("patch only holds the edits", 3,
+				patch.getEditCount());
+
+		Sequence patched = a.clone();
+		patched.apply(patch);
+		Testing.assertEquals("apply turns source into target", b.toString(),
+				patched.toString());
+		Testing.assertEquals("apply restores the current element", true,
+				patched.equals(b));
+
+		Sequence decoded = a.clone();
+		decoded.apply(SequencePatch.fromByteArray(patch.toByteArray()));
+		Testing.assertEquals("patch survives encoding", true, decoded.equals(b));
+
+		Sequence empty = new Sequence();
+		Sequence fromEmpty = new Sequence(3);
+		fromEmpty.apply(Sequence.diff(empty, b));
+		Testing.assertEquals("diff from an empty sequence", true,
+				fromEmpty.equals(b));
+
+		Sequence toEmpty = b.clone();
+		toEmpty.apply(Sequence.diff(b, empty));
+		Testing.assertEquals("diff to an empty sequence",
+				"{} (capacity = 10)", toEmpty.toString());
+
+		boolean thrown = false;
+		try {
+			empty.apply(patch);
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		Testing.assertEquals("patch for a different size is rejected", true,
+				thrown);
+
+		// Header claiming 2^27 hunks followed by no hunk bytes at all.
+		thrown = false;
+		try {
+			SequencePatch.fromByteArray(new byte[] { 0x53, 0x51, 0x50, 0x31,
+					(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0,
+					0, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x40 });
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		Testing.assertEquals("hunk count beyond the input is rejected", true,
+				thrown);
+
+		// Sizes whose fifth byte sets a bit above bit 31.
+		thrown = false;
+		try {
+			SequencePatch.fromByteArray(new byte[] { 0x53, 0x51, 0x50, 0x31,
+					(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x17,
+					(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x17, 0,
+					0 });
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		Testing.assertEquals("overlong length is rejected", true, thrown);
+	}
+
+	/*
+	 * Subscriber that records what it receives and requests a fixed number of
+	 * items when it subscribes.
+	 */
+	private static class Recorder<T> implements SequenceFlow.Subscriber<T> {
+		final List<T> items = new ArrayList<T>();
+		final long initialRequest;
+		SequenceFlow.Subscription subscription;
+		boolean completed;
+		Throwable error;
+
+		Recorder(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		public void onSubscribe(SequenceFlow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initialRequest > 0)
+				subscription.request(initialRequest);
+		}
+
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	private static void testChangeFeed() {
+		Testing.testSection("Testing changeFeed()");
+		Sequence s1 = new Sequence(2);
+		SequenceChangeFeed feed = s1.changeFeed();
+		Testing.assertEquals("changeFeed() returns the same feed", true,
+				feed == s1.changeFeed());
+
+		s1.addAfter("ignored");
+		Recorder<List<SequenceChange>> recorder = new Recorder<List<SequenceChange>>(
+				Long.MAX_VALUE);
+		feed.subscribe(recorder);
+		feed.flush();
+		Testing.assertEquals("changes before subscribing are not recorded", 0,
+				recorder.items.size());
+
+		s1.addAfter("A");
+		s1.addAfter("B");
+		s1.addAfter("C");
+		s1.start();
+		s1.advance();
+		s1.removeCurrent();
+		s1.removeCurrent();
+		feed.flush();
+		Testing.assertEquals("changes are coalesced into one batch",
+				"[INSERTED@1[A], CAPACITY_CHANGED@5, INSERTED@2[B, C], "
+						+ "CURSOR_MOVED@1, REMOVED@1[A, B]]", recorder.items
+						.get(0).toString());
+
+		Sequence addend = new Sequence();
+		addend.addAfter("X");
+		addend.addAfter("Y");
+		s1.addAll(addend);
+		feed.flush();
+		Testing.assertEquals("addAll publishes a bulk change",
+				"[ADDED_ALL@2[X, Y]]", recorder.items.get(1).toString());
+
+		Recorder<List<SequenceChange>> slow = new Recorder<List<SequenceChange>>(
+				1);
+		feed.subscribe(slow);
+		s1.start();
+		feed.flush();
+		s1.advance();
+		feed.flush();
+		Testing.assertEquals("slow subscriber only gets what it requested", 1,
+				slow.items.size());
+		slow.subscription.request(1);
+		Testing.assertEquals("requesting more delivers the queued batch",
+				"[CURSOR_MOVED@1]", slow.items.get(1).toString());
+
+		slow.subscription.cancel();
+		feed.close();
+		Testing.assertEquals("close completes subscribers", true,
+				recorder.completed);
+		Testing.assertEquals("cancelled subscriber is not completed", false,
+				slow.completed);
+		Testing.assertEquals("closed feed has no subscribers", 0,
+				feed.getSubscriberCount());
+		Testing.assertEquals("clone does not copy the feed", true,
+				s1.clone().changeFeed() != s1.changeFeed());
+	}
+
+	private static void testPublisher() {
+		Testing.testSection("Testing publisher()");
+		Sequence s1 = new Sequence();
+		String[] letters = { "A", "B", "C", "D", "E" };
+		for (String s : letters)
+			s1.addAfter(s);
+
+		SequenceFlow.Publisher<String> publisher = s1.publisher();
+		s1.start();
+		s1.removeCurrent();
+		s1.addAfter("Z");
+		Testing.assertEquals("editing after the snapshot changes the sequence",
+				"{B, >Z, C, D, E} (capacity = 10)", s1.toString());
+
+		Recorder<String> recorder = new Recorder<String>(2);
+		publisher.subscribe(recorder);
+		Testing.assertEquals("only the requested elements are delivered",
+				"[A, B]", recorder.items.toString());
+		recorder.subscription.request(10);
+		Testing.assertEquals("the snapshot is unaffected by later edits",
+				"[A, B, C, D, E]", recorder.items.toString());
+		Testing.assertEquals("publisher completes after the last element",
+				true, recorder.completed);
+
+		Recorder<String> second = new Recorder<String>(1);
+		publisher.subscribe(second);
+		Testing.assertEquals("a snapshot is streamed only once", true,
+				second.error instanceof IllegalStateException);
+
+		Recorder<List<String>> chunks = new Recorder<List<String>>(
+				Long.MAX_VALUE);
+		s1.publisher(2).subscribe(chunks);
+		Testing.assertEquals("chunked publisher", "[[B, Z], [C, D], [E]]",
+				chunks.items.toString());
+
+		Recorder<String> cancelled = new Recorder<String>(1);
+		s1.publisher().subscribe(cancelled);
+		cancelled.subscription.cancel();
+		cancelled.subscription.request(5);
+		Testing.assertEquals("nothing is delivered after cancel", 1,
+				cancelled.items.size());
+		Testing.assertEquals("cancelled publisher does not complete", false,
+				cancelled.completed);
+
+		Recorder<String> empty = new Recorder<String>(0);
+		new Sequence().publisher().subscribe(empty);
+		Testing.assertEquals("empty snapshot completes without a request",
+				true, empty.completed);
+	}
+
+	private static void testLoader() {
+		Testing.testSection("Testing SequenceLoader");
+		try {
+			Path file = Files.createTempFile("sequence", ".txt");
+			try {
+				Files.write(file,
+						"A\r\n\n\u00d1and\u00fa\nlast".getBytes(StandardCharsets.UTF_8));
+				Testing.assertEquals("lines, CRLF, empty and unterminated lines",
+						"{>A, , \u00d1and\u00fa, last} (capacity = 4)", SequenceLoader
+								.load(file).toString());
+
+				Files.write(file, new byte[0]);
+				Testing.assertEquals("empty file", "{} (capacity = 0)",
+						SequenceLoader.load(file).toString());
+
+				StringBuilder longLine = new StringBuilder();
+				for (int i = 0; i < SequenceLoader.BUFFER_SIZE + 10; i++)
+					longLine.append('x');
+				Files.write(file, ("A\n" + longLine + "\nB\n")
+						.getBytes(StandardCharsets.UTF_8));
+				Sequence loaded = SequenceLoader.load(file);
+				loaded.advance();
+				Testing.assertEquals("line longer than the read buffer",
+						longLine.length(), loaded.getCurrent().length());
+
+				StringBuilder many = new StringBuilder();
+				int lines = 0;
+				while (many.length() < 3 * SequenceLoader.MIN_REGION_SIZE) {
+					many.append("line ").append(lines++).append('\n');
+				}
+				Files.write(file,
+						many.toString().getBytes(StandardCharsets.UTF_8));
+				Sequence sequential = SequenceLoader.load(file);
+				Sequence parallel = SequenceLoader.load(file, 4);
+				Testing.assertEquals("parallel load keeps every line", lines,
+						parallel.size());
+				Testing.assertEquals("parallel load keeps the order", true,
+						parallel.equals(sequential));
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			Testing.assertEquals("loading threw " + e, true, false);
+		}
+	}
+
+	private static void testInterning() {
+		Testing.testSection("Testing StringPool and deduplicate()");
+		StringPool pool = new StringPool(100);
+		String first = new String("token");
+		String second = new String("token");
+		Testing.assertEquals("intern returns the first instance", true,
+				pool.intern(first) == first && pool.intern(second) == first);
+		Testing.assertEquals("one miss and one hit", "1/1",
+				pool.getMissCount() + "/" + pool.getHitCount());
+
+		StringPool small = new StringPool(1);
+		for (int i = 0; i < 10; i++)
+			small.intern("s" + i);
+		Testing.assertEquals("pool stays within its size", 1, small.size());
+		Testing.assertEquals("evictions are counted", 9,
+				(int) small.getEvictionCount());
+
+		Sequence s1 = new Sequence();
+		s1.setInternPool(pool);
+		s1.addAfter(new String("token"));
+		s1.addBefore(new String("token"));
+		String[] bulk = { new String("token") };
+		s1.addAll(bulk, 0, 1);
+		s1.start();
+		String a = s1.getCurrent();
+		s1.advance();
+		String b = s1.getCurrent();
+		s1.advance();
+		Testing.assertEquals("inserts share the pooled instance", true,
+				a == first && b == first && s1.getCurrent() == first);
+
+		Sequence s2 = new Sequence();
+		for (int i = 0; i < 3; i++) {
+			s2.addAfter(new String("x"));
+			s2.addAfter(new String("y"));
+		}
+		Testing.assertEquals("deduplicate replaces the duplicates", 4,
+				s2.deduplicate());
+		Testing.assertEquals("deduplicate keeps the contents",
+				"{x, y, x, y, x, >y} (capacity = 10)", s2.toString());
+		Testing.assertEquals("second deduplicate finds nothing", 0,
+				s2.deduplicate());
+	}
+
+	private static void testArrayPool() {
+		Testing.testSection("Testing SequenceArrayPool and release()");
+		SequenceArrayPool pool = new SequenceArrayPool(1000);
+		Sequence s1 = new Sequence(2, pool);
+		s1.addAfter("A");
+		s1.addAfter("B");
+		s1.addAfter("C");
+		Testing.assertEquals("pooled sequence grows as usual",
+				"{A, B, >C} (capacity = 5)", s1.toString());
+		Testing.assertEquals("the outgrown array went back to the pool", 2,
+				(int) pool.getPooledSlots());
+
+		Sequence s2 = new Sequence(2, pool);
+		Testing.assertEquals("the next sequence reuses it", 1,
+				(int) pool.getHitCount());
+		s2.addAfter("X");
+
+		Sequence copy = s1.clone();
+		s1.release();
+		Testing.assertEquals("release empties the sequence",
+				"{} (capacity = 0)", s1.toString());
+		Testing.assertEquals("clone is unaffected by release",
+				"{A, B, >C} (capacity = 5)", copy.toString());
+
+		String[] reused = pool.borrow(5);
+		boolean cleared = true;
+		for (String value : reused)
+			cleared = cleared && value == null;
+		Testing.assertEquals("released arrays are cleared", true, cleared);
+
+		s1.addAfter("again");
+		Testing.assertEquals("released sequence can be used again",
+				"{>again} (capacity = 1)", s1.toString());
+
+		SequenceArrayPool tiny = new SequenceArrayPool(3);
+		Sequence s3 = new Sequence(10, tiny);
+		s3.release();
+		Testing.assertEquals("arrays past the cap are dropped", 1,
+				(int) tiny.getDroppedCount());
+
+		Sequence s4 = new Sequence(4, pool);
+		s4.addAfter("kept");
+		SequenceFlow.Publisher<String> snapshot = s4.publisher();
+		long pooledBefore = pool.getPooledSlots();
+		s4.release();
+		Testing.assertEquals("an array held by a snapshot is not pooled",
+				true, pooledBefore == pool.getPooledSlots());
+		Recorder<String> recorder = new Recorder<String>(1);
+		snapshot.subscribe(recorder);
+		Testing.assertEquals("snapshot still streams after release", "[kept]",
+				recorder.items.toString());
+
+		// Arrays cached by threads that have exited do not fill up the pool.
+		final SequenceArrayPool churned = new SequenceArrayPool(1000);
+		try {
+			for (int t = 0; t < 200; t++) {
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						churned.release(new String[10], 0);
+					}
+				});
+				thread.start();
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Testing.assertEquals("exited threads hold no shared slots", 0,
+				(int) churned.getPooledSlots());
+		Testing.assertEquals("no array dropped for exited threads", 0,
+				(int) churned.getDroppedCount());
+		for (int i = 0; i < 5; i++)
+			churned.release(new String[100], 0);
+		Testing.assertEquals("the pool still takes arrays afterwards", 500,
+				(int) churned.getPooledSlots());
+	}
+
+	private static void testMemoryAccounting() {
+		Testing.testSection("Testing SequenceMemory");
+		Sequence untracked = new Sequence(4);
+		Testing.assertEquals("untracked sequence reports its array", true,
+				untracked.getRetainedBytes() == SequenceMemory.arrayBytes(4));
+
+		SequenceMemory.setEnabled(true, true);
+		try {
+			long before = SequenceMemory.getRetainedBytes();
+			Sequence s1 = new Sequence(4);
+			s1.addAfter("abc");
+			long expected = SequenceMemory.arrayBytes(4)
+					+ SequenceMemory.stringBytes("abc");
+			Testing.assertEquals("array and payload are accounted", true,
+					s1.getRetainedBytes() == expected);
+			Testing.assertEquals("process-wide total includes the sequence",
+					true, SequenceMemory.getRetainedBytes() - before == expected);
+
+			s1.ensureCapacity(100);
+			s1.removeCurrent();
+			Testing.assertEquals("growth and removal are accounted", true,
+					s1.getRetainedBytes() == SequenceMemory.arrayBytes(100));
+			s1.trimToSize();
+			Testing.assertEquals("trimming is accounted", true,
+					s1.getRetainedBytes() == SequenceMemory.arrayBytes(0));
+
+			final long[] calls = { 0 };
+			final Sequence spillable = new Sequence(1000);
+			SequenceMemory.setBudget(SequenceMemory.getRetainedBytes() + 100,
+					new SequenceMemory.BudgetListener() {
+						public void overBudget(long requested, long retained,
+								long budget) {
+							calls[0]++;
+							spillable.trimToSize();
+						}
+					});
+			Sequence s2 = new Sequence(1);
+			s2.ensureCapacity(200);
+			Testing.assertEquals("listener freed enough memory to grow", true,
+					calls[0] == 1 && s2.getCapacity() == 200);
+
+			boolean thrown = false;
+			try {
+				s2.ensureCapacity(100000);
+			} catch (IllegalStateException e) {
+				thrown = true;
+			}
+			Testing.assertEquals("growth past the budget is refused", true,
+					thrown);
+			Testing.assertEquals("refused growth leaves the sequence alone",
+					200, s2.getCapacity());
+
+			SequenceMemory.setBudget(Long.MAX_VALUE, null);
+			Sequence snapshotted = new Sequence(50);
+			snapshotted.addAfter("a");
+			snapshotted.publisher();
+			snapshotted.addAfter("b");
+			Testing.assertEquals("the copy behind a snapshot is accounted",
+					true, snapshotted.getRetainedBytes() == 2
+							* SequenceMemory.arrayBytes(50)
+							+ SequenceMemory.stringBytes("a")
+							+ SequenceMemory.stringBytes("b"));
+			snapshotted.release();
+			Testing.assertEquals("and settled when the array is released",
+					true, snapshotted.getRetainedBytes() == SequenceMemory
+							.arrayBytes(0));
+
+			SequenceArrayPool pool = new SequenceArrayPool(1000);
+			Sequence source = new Sequence(8);
+			source.setArrayPool(pool);
+			source.addAfter("a");
+			Sequence target = source.clone();
+			target.addAfter(new String(new char[10000]));
+			SequencePatch growing = Sequence.diff(source, target);
+			SequenceMemory.setBudget(SequenceMemory.getRetainedBytes() + 1000,
+					null);
+			thrown = false;
+			try {
+				source.apply(growing);
+			} catch (IllegalStateException e) {
+				thrown = true;
+			}
+			Testing.assertEquals("a patch past the budget is refused", true,
+					thrown);
+			Testing.assertEquals("and its array goes back to the pool", 8,
+					(int) pool.getPooledSlots());
+			Testing.assertEquals("leaving the sequence alone",
+					"{>a} (capacity = 8)", source.toString());
+
+			SequenceMemory.setBudget(Long.MAX_VALUE, null);
+			Path file = Files.createTempFile("budget", ".txt");
+			try {
+				StringBuilder text = new StringBuilder();
+				for (int i = 0; i < 200000; i++)
+					text.append("line number ").append(i).append('\n');
+				Files.write(file,
+						text.toString().getBytes(StandardCharsets.UTF_8));
+				Sequence loaded = SequenceLoader.load(file);
+				long loadedBytes = SequenceMemory.arrayBytes(200000);
+				for (int i = 0; i < 200000; i++)
+					loadedBytes += SequenceMemory.stringBytes("line number " + i);
+				Testing.assertEquals("the reservation settles to the exact size",
+						true, loaded.getRetainedBytes() == loadedBytes);
+
+				SequenceMemory.setBudget(SequenceMemory.getRetainedBytes()
+						+ loadedBytes / 2, null);
+				long retained = SequenceMemory.getRetainedBytes();
+				long allocated = SequenceRegressionTests.threadAllocatedBytes();
+				boolean refused = false;
+				try {
+					SequenceLoader.load(file);
+				} catch (IllegalStateException e) {
+					refused = true;
+				}
+				allocated = SequenceRegressionTests.threadAllocatedBytes() - allocated;
+				Testing.assertEquals("a load past the budget is refused", true,
+						refused);
+				Testing.assertEquals("before the lines are decoded", true,
+						allocated < loadedBytes / 4);
+				Testing.assertEquals("a refused load keeps nothing reserved",
+						true, SequenceMemory.getRetainedBytes() <= retained);
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			Testing.assertEquals("loading threw " + e, true, false);
+		} finally {
+			SequenceMemory.setBudget(Long.MAX_VALUE, null);
+			SequenceMemory.setEnabled(false, false);
+		}
+	}
+
+	private static void testMetrics() {
+		Testing.testSection("Testing SequenceMetrics");
+		SequenceMetrics.reset();
+		Sequence ignored = new Sequence(1);
+		ignored.addBefore("A");
+		ignored.addBefore("B");
+		Testing.assertEquals("nothing is counted while disabled", "0/0",
+				SequenceMetrics.snapshot().getShifts() + "/"
+						+ SequenceMetrics.snapshot().getResizes());
+
+		final List<String> slow = new ArrayList<String>();
+		SequenceMetrics.setEnabled(true);
+		SequenceMetrics.setSlowOperationListener(0,
+				new SequenceMetrics.SlowOperationListener() {
+					public void slowOperation(String operation, long elements,
+							long nanos) {
+						slow.add(operation + ":" + elements);
+					}
+				});
+		try {
+			Sequence s1 = new Sequence(2);
+			s1.addAfter("A");
+			s1.addAfter("B");
+			s1.start();
+			s1.addBefore("Z");
+			s1.removeCurrent();
+			Sequence copy = s1.clone();
+			Sequence.concatenation(s1, copy);
+			String printed = s1.toString();
+
+			SequenceMetrics.Snapshot snapshot = SequenceMetrics.snapshot();
+			Testing.assertEquals("shifts by addBefore and removeCurrent", 4,
+					(int) snapshot.getShifts());
+			Testing.assertEquals("one resize copying two elements", "1/2",
+					snapshot.getResizes() + "/" + snapshot.getResizeSlotsCopied());
+			Testing.assertEquals("clone and concatenation copies", "2/4",
+					snapshot.getCloneSlotsCopied() + "/"
+							+ snapshot.getConcatenationSlotsCopied());
+			Testing.assertEquals("toString characters", printed.length(),
+					(int) snapshot.getToStringChars());
+			Testing.assertEquals("operations over the threshold are reported",
+					"[ensureCapacity:2, clone:2, concatenation:4, toString:"
+							+ printed.length() + "]", slow.toString());
+		} finally {
+			SequenceMetrics.setEnabled(false);
+			SequenceMetrics.setSlowOperationListener(0, null);
+			SequenceMetrics.reset();
+		}
+	}
+
+	/**
+	 * @return the positions of the elements of s that start with prefix, or
+	 *         that contain it if contains is true, found with a full scan.
+	 */
+	private static String scan(Sequence s, String query, boolean contains) {
+		List<Integer> positions = new ArrayList<Integer>();
+		String[] values = s.toArray();
+		for (int i = 0; i < values.length; i++) {
+			if (contains ? values[i].contains(query) : values[i]
+					.startsWith(query))
+				positions.add(i);
+		}
+		return positions.toString();
+	}
+
+	private static String positions(int[] positions) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int position : positions)
+			list.add(position);
+		return list.toString();
+	}
+
+	private static void testIndex() {
+		Testing.testSection("Testing SequenceIndex");
+		Sequence s1 = new Sequence();
+		s1.addAfter("apple");
+		s1.addAfter("banana");
+		s1.addAfter("apricot");
+		s1.addAfter("grape");
+		s1.addAfter("apple");
+		SequenceIndex index = new SequenceIndex(s1);
+		Testing.assertEquals("prefix query after bulk build", "[0, 2, 4]",
+				positions(index.startingWith("ap")));
+		Testing.assertEquals("prefix count", 3, index.countStartingWith("ap"));
+		Testing.assertEquals("prefix count without a match", 0,
+				index.countStartingWith("kiwi"));
+		Testing.assertEquals("substring query", "[0, 2, 3, 4]",
+				positions(index.containing("ap")));
+		Testing.assertEquals("trigram substring query", "[1]",
+				positions(index.containing("nan")));
+		Testing.assertEquals("no match", "[]",
+				positions(index.containing("xyz")));
+		Testing.assertEquals("distinct elements", 4, index.getDistinctCount());
+
+		s1.start();
+		s1.advance();
+		s1.addBefore("apex");
+		Testing.assertEquals("insert shifts later positions", "[0, 1, 3, 5]",
+				positions(index.startingWith("ap")));
+		s1.start();
+		s1.removeCurrent();
+		Testing.assertEquals("remove shifts later positions", "[0, 2, 4]",
+				positions(index.startingWith("ap")));
+		Testing.assertEquals("removed value stays indexed while duplicated",
+				"[4]", positions(index.containing("pple")));
+
+		Sequence other = new Sequence();
+		other.addAfter("grapefruit");
+		s1.apply(Sequence.diff(s1, other));
+		Testing.assertEquals("apply rebuilds the index", "[0]",
+				positions(index.startingWith("grape")));
+		Testing.assertEquals("old elements are gone", "[]",
+				positions(index.containing("apple")));
+
+		// Random edits, checked against a full scan after every step.
+		java.util.Random random = new java.util.Random(7);
+		Sequence s2 = new Sequence();
+		SequenceIndex index2 = new SequenceIndex(s2);
+		String[] words = { "alpha", "alps", "beta", "bet", "gamma", "al",
+				"alphabet" };
+		boolean consistent = true;
+		for (int step = 0; step < 2000 && consistent; step++) {
+			int op = random.nextInt(10);
+			if (op < 3) {
+				s2.addBefore(words[random.nextInt(words.length)]);
+			} else if (op < 6) {
+				s2.addAfter(words[random.nextInt(words.length)]);
+			} else if (op < 7) {
+				s2.addAll(new String[] { words[random.nextInt(words.length)],
+						words[random.nextInt(words.length)] }, 0, 2);
+			} else if (op < 9) {
+				s2.removeCurrent();
+			} else {
+				s2.start();
+				for (int i = random.nextInt(s2.size() + 1); i > 0; i--)
+					s2.advance();
+			}
+			String word = words[random.nextInt(words.length)];
+			String query = word.substring(0,
+					1 + random.nextInt(Math.min(4, word.length())));
+			int[] prefixed = index2.startingWith(query);
+			consistent = scan(s2, query, false).equals(positions(prefixed))
+					&& prefixed.length == index2.countStartingWith(query)
+					&& scan(s2, query, true).equals(
+							positions(index2.containing(query)));
+		}
+		Testing.assertEquals("index agrees with a full scan after random edits",
+				true, consistent);
+
+		index2.close();
+		s2.addAfter("alpha");
+		boolean rejected = false;
+		try {
+			index2.startingWith("al");
+		} catch (IllegalStateException e) {
+			rejected = true;
+		}
+		Testing.assertEquals("closed index rejects queries", true, rejected);
+	}
+
+	/**
+	 * @return true iff estimate is within tolerance (a fraction) of exact.
+	 */
+	private static boolean near(long estimate, long exact, double tolerance) {
+		return Math.abs(estimate - exact) <= tolerance * exact;
+	}
+
+	private static void testStatistics() {
+		Testing.testSection("Testing SequenceStatistics");
+		Sequence s1 = new Sequence();
+		s1.addAfter("a");
+		s1.addAfter("bb");
+		s1.addAfter("a");
+		SequenceStatistics stats = new SequenceStatistics(s1);
+		Testing.assertEquals("statistics are attached", true,
+				SequenceStatistics.of(s1) == stats);
+		Testing.assertEquals("small distinct count is exact", 2,
+				(int) stats.getDistinctCount());
+		Testing.assertEquals("most frequent first", "[a, bb]",
+				stats.getTopValues(5).toString());
+		Testing.assertEquals("frequency", 2, (int) stats.getFrequency("a"));
+		Testing.assertEquals("lengths 1 and 2-3", "[0, 2, 1]",
+				java.util.Arrays.toString(stats.getLengthHistogram()));
+
+		s1.addBefore("");
+		s1.addAll(new String[] { "cccc", "a" }, 0, 2);
+		Testing.assertEquals("insertions and appends are counted", "[1, 3, 1, 1]",
+				java.util.Arrays.toString(stats.getLengthHistogram()));
+		Testing.assertEquals("frequency after appends", 3,
+				(int) stats.getFrequency("a"));
+
+		// {a, bb, "", a, cccc, a}
+		s1.start();
+		s1.advance();
+		s1.removeCurrent();
+		Testing.assertEquals("removed element is no longer tracked", "0/3",
+				stats.getFrequency("bb") + "/" + stats.getFrequency("a"));
+		s1.removeCurrent();
+		Testing.assertEquals("removal keeps the histogram exact", "[0, 3, 0, 1]",
+				java.util.Arrays.toString(stats.getLengthHistogram()));
+		Testing.assertEquals("distinct count keeps removed elements", 4,
+				(int) stats.getDistinctCount());
+		stats.recompute();
+		Testing.assertEquals("recompute forgets removed elements", 2,
+				(int) stats.getDistinctCount());
+		Testing.assertEquals("element count", 4, (int) stats.getElementCount());
+
+		// 200K elements drawn from 20K values, one of them very common.
+		java.util.Random random = new java.util.Random(3);
+		Sequence big = new Sequence();
+		SequenceStatistics bigStats = new SequenceStatistics(big);
+		int hot = 0;
+		for (int i = 0; i < 200000; i++) {
+			if (random.nextInt(10) == 0) {
+				big.addAfter("hot");
+				hot++;
+			} else {
+				big.addAfter("v" + random.nextInt(20000));
+			}
+		}
+		Testing.assertEquals("distinct count within 3%", true,
+				near(bigStats.getDistinctCount(), 20001, 0.03));
+		Testing.assertEquals("heavy hitter found", "hot",
+				bigStats.getTopValues(1).get(0));
+		Testing.assertEquals("heavy hitter count is an upper bound", true,
+				bigStats.getFrequency("hot") >= hot
+						&& bigStats.getFrequency("hot")
+								- bigStats.getFrequencyError("hot") <= hot);
+
+		// Disjoint halves merge to about the union.
+		Sequence left = new Sequence();
+		Sequence right = new Sequence();
+		for (int i = 0; i < 30000; i++) {
+			left.addAfter("left" + i);
+			right.addAfter("right" + i);
+		}
+		SequenceStatistics leftStats = new SequenceStatistics(left);
+		SequenceStatistics merged = leftStats.copy();
+		merged.merge(new SequenceStatistics(right));
+		Testing.assertEquals("merged distinct count within 3%", true,
+				near(merged.getDistinctCount(), 60000, 0.03));
+		Testing.assertEquals("merging leaves the source alone", true,
+				near(leftStats.getDistinctCount(), 30000, 0.03));
+
+		Sequence both = Sequence.concatenation(left, right);
+		SequenceStatistics bothStats = SequenceStatistics.of(both);
+		Testing.assertEquals("concatenation gets merged statistics", true,
+				bothStats != null
+						&& bothStats.getDistinctCount() == merged
+								.getDistinctCount());
+		Testing.assertEquals("concatenation counts an operand without statistics",
+				60000, (int) bothStats.getElementCount());
+		both.addAfter("extra");
+		Testing.assertEquals("merged statistics follow the new sequence",
+				60001, (int) bothStats.getElementCount());
+
+		boolean rejected = false;
+		try {
+			merged.merge(new SequenceStatistics(10, 64));
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		Testing.assertEquals("incompatible statistics are not merged", true,
+				rejected);
+	}
+
+	private static void testShardedSequence() {
+		Testing.testSection("Testing ShardedSequence");
+		ShardedSequence s1 = new ShardedSequence(3,
+				java.util.concurrent.ForkJoinPool.commonPool());
+		s1.add("B");
+		s1.add("D");
+		s1.add(0, "A");
+		s1.add(2, "C");
+		Testing.assertEquals("positional inserts", "{A, B, C, D} (shards = 3)",
+				s1.toString());
+		Testing.assertEquals("get", "C", s1.get(2));
+		Testing.assertEquals("remove returns the element", "B", s1.remove(1));
+		Testing.assertEquals("size after remove", 3, s1.size());
+		boolean rejected = false;
+		try {
+			s1.get(3);
+		} catch (IndexOutOfBoundsException e) {
+			rejected = true;
+		}
+		Testing.assertEquals("out of range position is rejected", true,
+				rejected);
+
+		// Random edits mirrored on a list; the shards get skewed by inserts
+		// at the front and must be rebalanced.
+		java.util.Random random = new java.util.Random(11);
+		ShardedSequence s2 = new ShardedSequence(4,
+				java.util.concurrent.ForkJoinPool.commonPool());
+		List<String> expected = new ArrayList<String>();
+		for (int step = 0; step < 20000; step++) {
+			int op = random.nextInt(10);
+			if (op < 4 || expected.isEmpty()) {
+				String value = "v" + step;
+				s2.add(0, value);
+				expected.add(0, value);
+			} else if (op < 7) {
+				int index = random.nextInt(expected.size() + 1);
+				s2.add(index, "w" + step);
+				expected.add(index, "w" + step);
+			} else {
+				int index = random.nextInt(expected.size());
+				s2.remove(index);
+				expected.remove(index);
+			}
+		}
+		boolean same = s2.size() == expected.size();
+		for (int i = 0; same && i < expected.size(); i++)
+			same = expected.get(i).equals(s2.get(i));
+		Testing.assertEquals("random edits match a list", true, same);
+		Testing.assertEquals("skewed shards are rebalanced", true,
+				s2.getRebalanceCount() > 0);
+
+		Testing.assertEquals("parallel count", 2,
+				s1.count(new java.util.function.Predicate<String>() {
+					public boolean test(String value) {
+						return value.compareTo("B") > 0;
+					}
+				}));
+		Testing.assertEquals("parallel count without matches", 0,
+				s2.count(new java.util.function.Predicate<String>() {
+					public boolean test(String value) {
+						return value.equals("none");
+					}
+				}));
+		String probe = expected.get(expected.size() / 2);
+		Testing.assertEquals("parallel indexOf", expected.indexOf(probe),
+				s2.indexOf(probe));
+		Testing.assertEquals("indexOf of a missing element", -1,
+				s1.indexOf("Z"));
+
+		ShardedSequence copy = s2.clone();
+		Testing.assertEquals("clone equals the original", true,
+				copy.equals(s2));
+		copy.add("extra");
+		Testing.assertEquals("clone is independent", false, copy.equals(s2));
+		copy.remove(copy.size() - 1);
+		copy.rebalance();
+		Testing.assertEquals("equality ignores shard boundaries", true,
+				s2.equals(copy));
+
+		ShardedSequence both = ShardedSequence.concatenation(s1, s1);
+		Testing.assertEquals("concatenation keeps the shards of both",
+				"{A, C, D, A, C, D} (shards = 6)", both.toString());
+
+		// Concurrent appends and inserts from several threads.
+		final ShardedSequence shared = new ShardedSequence(8,
+				java.util.concurrent.ForkJoinPool.commonPool());
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					java.util.Random r = new java.util.Random(id);
+					for (int i = 0; i < 5000; i++) {
+						if (i % 2 == 0)
+							shared.add("t" + id + "-" + i);
+						else
+							shared.add(r.nextInt(shared.size() + 1) / 2, "t"
+									+ id + "-" + i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		java.util.Set<String> seen = new java.util.HashSet<String>();
+		for (int i = 0; i < shared.size(); i++)
+			seen.add(shared.get(i));
+		Testing.assertEquals("concurrent edits keep every element", "20000/20000",
+				shared.size() + "/" + seen.size());
+	}
+
+	private static Sequence sequenceOf(String... values) {
+		Sequence s = new Sequence();
+		s.addAll(values, 0, values.length);
+		return s;
+	}
+
+	private static void testComparison() {
+		Testing.testSection("Testing compareTo, mismatch and common prefixes");
+		Sequence abc = sequenceOf("A", "B", "C");
+		Sequence abd = sequenceOf("A", "B", "D");
+		Sequence ab = sequenceOf("A", "B");
+		Sequence xbc = sequenceOf("X", "B", "C");
+
+		Testing.assertEquals("equals no longer accepts a prefix", false,
+				ab.equals(abc));
+		Testing.assertEquals("equals with the same elements", true,
+				abc.equals(sequenceOf("A", "B", "C")));
+
+		Testing.assertEquals("mismatch at the differing element", 2,
+				abc.mismatch(abd));
+		Testing.assertEquals("mismatch at the end of a prefix", 2,
+				abc.mismatch(ab));
+		Testing.assertEquals("no mismatch between equal elements", -1,
+				abc.mismatch(sequenceOf("A", "B", "C")));
+		Testing.assertEquals("no mismatch with itself", -1, abc.mismatch(abc));
+		Testing.assertEquals("mismatch with an empty sequence", 0,
+				abc.mismatch(new Sequence()));
+
+		Testing.assertEquals("common prefix", 2, abc.commonPrefixLength(abd));
+		Testing.assertEquals("common suffix", 2, abc.commonSuffixLength(xbc));
+		Testing.assertEquals("common suffix of different lengths", 1,
+				abc.commonSuffixLength(sequenceOf("Q", "C")));
+		Testing.assertEquals("common suffix with itself", 3,
+				abc.commonSuffixLength(abc));
+
+		Testing.assertEquals("smaller element first", true,
+				abc.compareTo(abd) < 0 && abd.compareTo(abc) > 0);
+		Testing.assertEquals("prefix first", true, ab.compareTo(abc) < 0
+				&& abc.compareTo(ab) > 0);
+		Testing.assertEquals("equal sequences compare as 0", 0,
+				abc.compareTo(sequenceOf("A", "B", "C")));
+		Sequence moved = sequenceOf("A", "B", "C");
+		moved.advance();
+		Testing.assertEquals("same elements ordered by the current element",
+				true, abc.compareTo(moved) < 0 && !abc.equals(moved));
+
+		// Equal strings that are different objects compare by content.
+		Sequence copies = sequenceOf(new String("A"), new String("B"),
+				new String("C"));
+		Testing.assertEquals("equal strings in different objects", -1,
+				abc.mismatch(copies));
+	}
+
+	private static void testDurableSequence() {
+		Testing.testSection("Testing DurableSequence");
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("durable");
+			DurableSequence d = DurableSequence.open(directory,
+					DurableSequence.Durability.GROUP);
+			d.addAfter("A");
+			d.addAfter("B");
+			d.addAfter("C");
+			d.start();
+			d.advance();
+			d.removeCurrent();
+			d.addBefore("X");
+			d.addAll(new String[] { "D", "E" }, 0, 2);
+			d.trimToSize();
+			d.start();
+			String expected = d.getSequence().toString();
+			d.close();
+			Testing.assertEquals("closed sequence keeps its contents",
+					"{>A, X, C, D, E} (capacity = 5)", expected);
+			d = DurableSequence.open(directory,
+					DurableSequence.Durability.GROUP);
+			Testing.assertEquals("reopening replays every change and the cursor",
+					expected, d.getSequence().toString());
+
+			// Without close, every acknowledged change is already in the log.
+			d.advance();
+			d.addAfter("Y");
+			expected = d.getSequence().toString();
+			DurableSequence recovered = DurableSequence.open(directory,
+					DurableSequence.Durability.GROUP);
+			Testing.assertEquals("recovery without close", expected,
+					recovered.getSequence().toString());
+			recovered.close();
+			d.close();
+
+			// A record torn by a crash is dropped.
+			Path log = directory.resolve("log-0");
+			long intact = Files.size(log);
+			Files.write(log, new byte[] { 0, 0, 0, 40, 1, 2, 3 },
+					java.nio.file.StandardOpenOption.APPEND);
+			d = DurableSequence.open(directory, DurableSequence.Durability.SYNC);
+			Testing.assertEquals("torn record dropped", expected, d
+					.getSequence().toString());
+			Testing.assertEquals("torn record cut off the log", true,
+					Files.size(log) == intact);
+
+			// Changes made directly on the sequence are logged too.
+			Sequence edited = d.getSequence().clone();
+			edited.start();
+			edited.removeCurrent();
+			synchronized (d.getSequence()) {
+				d.getSequence().apply(Sequence.diff(d.getSequence(), edited));
+			}
+			d.sync();
+			d.close();
+			d = DurableSequence.open(directory, DurableSequence.Durability.NONE);
+			Testing.assertEquals("apply on the sequence is logged",
+					edited.toString(), d.getSequence().toString());
+			d.close();
+
+			// A small compaction threshold snapshots and starts new logs.
+			d = DurableSequence.open(directory,
+					DurableSequence.Durability.NONE, 256);
+			for (int i = 0; i < 100; i++)
+				d.addAfter("element-" + i);
+			expected = d.getSequence().toString();
+			Testing.assertEquals("log compacted", true,
+					d.getSnapshotCount() > 0);
+			d.close();
+			int files = 0;
+			try (java.nio.file.DirectoryStream<Path> listing = Files
+					.newDirectoryStream(directory)) {
+				for (Path file : listing)
+					files++;
+			}
+			Testing.assertEquals("one snapshot and one log left", 2, files);
+			d = DurableSequence.open(directory, DurableSequence.Durability.GROUP);
+			Testing.assertEquals("snapshot plus log tail recovered", expected,
+					d.getSequence().toString());
+
+			// Concurrent changes share forces under GROUP.
+			final DurableSequence shared = d;
+			final int before = d.size();
+			Thread[] writers = new Thread[4];
+			for (int t = 0; t < writers.length; t++) {
+				writers[t] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (int i = 0; i < 50; i++)
+								shared.addAfter("concurrent");
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				});
+				writers[t].start();
+			}
+			for (Thread writer : writers)
+				writer.join();
+			Testing.assertEquals("concurrent changes applied", before + 200,
+					d.size());
+			Testing.assertEquals("no more than one force per change", true,
+					d.getForceCount() <= 200);
+			expected = d.getSequence().toString();
+			d.close();
+			d = DurableSequence.open(directory, DurableSequence.Durability.GROUP);
+			Testing.assertEquals("concurrent changes recovered", expected, d
+					.getSequence().toString());
+			d.close();
+
+			boolean rejected = false;
+			try {
+				d.addAfter("late");
+			} catch (IllegalStateException e) {
+				rejected = true;
+			}
+			Testing.assertEquals("closed sequence rejects changes", true,
+					rejected);
+		} catch (IOException | InterruptedException e) {
+			Testing.assertEquals("durable sequence threw " + e, true, false);
+		} finally {
+			if (directory != null)
+				deleteDirectory(directory);
+		}
+	}
+
+	private static void deleteDirectory(Path directory) {
+		try (java.nio.file.DirectoryStream<Path> listing = Files
+				.newDirectoryStream(directory)) {
+			for (Path file : listing)
+				Files.delete(file);
+			Files.delete(directory);
+		} catch (IOException e) {
+			Testing.assertEquals("could not delete " + directory, true, false);
+		}
+	}
 }
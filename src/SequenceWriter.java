@@ -0,0 +1,412 @@
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batched front-end for appending strings to a shared Sequence from many
+ * producer threads. Producers enqueue strings into a bounded queue and a single
+ * drainer thread appends them to the end of the sequence in batches, growing
+ * the sequence at most once and copying each batch in one bulk copy.
+ *
+ * The drainer holds the sequence's monitor while it applies a batch, so other
+ * threads that read or edit the sequence while the writer is open must
+ * synchronize on the sequence as well.
+ *
+ * If appending a batch throws, the writer fails: the batch and every string
+ * queued after it are discarded, and write, flush and close throw an
+ * IllegalStateException caused by the original exception.
+ *
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class SequenceWriter {
+	// ************************************************************************
+	// Invariant of the SequenceWriter class:
+	// (1) enqueued is the number of strings accepted by write (a string is
+	// withdrawn again if it never made it into the queue), and applied is the
+	// number of those strings that have been appended to the sequence.
+	// (2) Strings are appended in the order in which they were taken from the
+	// queue.
+	// (3) Once closed is true no further strings are accepted; the drainer
+	// exits once the queue is empty and no producer (counted by writers) is
+	// still in the middle of queuing a string.
+	// (4) Once failure is set, strings taken from the queue are counted in
+	// discarded instead of being appended.
+	// ************************************************************************
+	private final Sequence sequence;
+	private final BlockingQueue<Entry> queue;
+	private final int batchSize;
+	private final long lingerNanos;
+	private final Thread drainer;
+	private final Object progress = new Object();
+	private final AtomicInteger writers = new AtomicInteger();
+
+	private long enqueued;
+	private long applied;
+	private long discarded;
+	private volatile boolean closed;
+	private volatile RuntimeException failure;
+
+	private long batches;
+	private long largestBatch;
+	private long totalQueueNanos;
+	private long maxQueueNanos;
+
+	/**
+	 * Initialize a writer that appends to the given sequence and start its
+	 * drainer thread.
+	 *
+	 * @param sequence
+	 *            the sequence to append to.
+	 * @param queueCapacity
+	 *            the maximum number of strings waiting to be applied; write
+	 *            blocks while this many strings are queued.
+	 * @param batchSize
+	 *            the maximum number of strings applied in one batch.
+	 * @param lingerMillis
+	 *            how long the drainer waits for a batch to fill up once it has
+	 *            received its first string; 0 applies whatever is queued
+	 *            immediately.
+	 * @exception IllegalArgumentException
+	 *                Indicates that queueCapacity or batchSize is not positive,
+	 *                or that lingerMillis is negative.
+	 */
+	public SequenceWriter(Sequence sequence, int queueCapacity, int batchSize,
+			long lingerMillis) {
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("queueCapacity is not positive: "
+					+ queueCapacity);
+		}
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize is not positive: "
+					+ batchSize);
+		}
+		if (lingerMillis < 0) {
+			throw new IllegalArgumentException("lingerMillis is negative: "
+					+ lingerMillis);
+		}
+		this.sequence = sequence;
+		this.queue = new LinkedBlockingQueue<Entry>(queueCapacity);
+		this.batchSize = batchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.drainer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "SequenceWriter-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Queue a string to be appended to the end of the sequence. If the queue is
+	 * full, waits until the drainer has made room for it.
+	 *
+	 * @param value
+	 *            the string to append.
+	 * @exception IllegalArgumentException
+	 *                Indicates that value is null.
+	 * @exception IllegalStateException
+	 *                Indicates that the writer has been closed or has failed.
+	 * @exception InterruptedException
+	 *                Indicates that the thread was interrupted while waiting
+	 *                for room in the queue.
+	 */
+	public void write(String value) throws InterruptedException {
+		if (value == null) {
+			throw new IllegalArgumentException("value is null");
+		}
+		begin();
+		try {
+			queue.put(new Entry(value));
+		} catch (InterruptedException e) {
+			withdrawn();
+			throw e;
+		} finally {
+			writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Queue a string to be appended to the end of the sequence, waiting at most
+	 * the given time for room in the queue.
+	 *
+	 * @param value
+	 *            the string to append.
+	 * @param timeout
+	 *            how long to wait for room in the queue.
+	 * @param unit
+	 *            the unit of timeout.
+	 * @return true if the string was queued, false if the queue stayed full.
+	 * @exception IllegalStateException
+	 *                Indicates that the writer has been closed or has failed.
+	 * @exception InterruptedException
+	 *                Indicates that the thread was interrupted while waiting.
+	 */
+	public boolean write(String value, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		if (value == null) {
+			throw new IllegalArgumentException("value is null");
+		}
+		begin();
+		try {
+			if (!queue.offer(new Entry(value), timeout, unit)) {
+				withdrawn();
+				return false;
+			}
+			return true;
+		} catch (InterruptedException e) {
+			withdrawn();
+			throw e;
+		} finally {
+			writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wait until every string queued before this call has been appended to the
+	 * sequence.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that the writer failed before every such string
+	 *                was appended.
+	 * @exception InterruptedException
+	 *                Indicates that the thread was interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (progress) {
+			// A string counted in target may still be withdrawn, by a timed
+			// write that times out or an interrupted one, so enqueued is
+			// read again on every wake-up.
+			long target = enqueued;
+			while (applied < Math.min(target, enqueued) && failure == null) {
+				progress.wait();
+			}
+			if (applied < Math.min(target, enqueued)) {
+				throw failed();
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting strings, wait until every queued string has been appended
+	 * and stop the drainer thread. Closing a closed writer does nothing.
+	 *
+	 * @exception IllegalStateException
+	 *                Indicates that the writer has failed, so some strings were
+	 *                not appended.
+	 * @exception InterruptedException
+	 *                Indicates that the thread was interrupted while waiting
+	 *                for the drainer.
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		// Cut a lingering drainer short. If the queue is full the drainer is
+		// busy anyway and sees closed once it has emptied the queue.
+		queue.offer(WAKE_UP);
+		drainer.join();
+		if (failure != null) {
+			throw failed();
+		}
+	}
+
+	/**
+	 * @return the number of batches applied to the sequence so far.
+	 */
+	public long getBatchCount() {
+		synchronized (progress) {
+			return batches;
+		}
+	}
+
+	/**
+	 * @return the number of strings appended to the sequence so far.
+	 */
+	public long getAppliedCount() {
+		synchronized (progress) {
+			return applied;
+		}
+	}
+
+	/**
+	 * @return the number of strings discarded because the writer had failed.
+	 */
+	public long getDiscardedCount() {
+		synchronized (progress) {
+			return discarded;
+		}
+	}
+
+	/**
+	 * @return the average number of strings per batch, or 0 if no batch has
+	 *         been applied.
+	 */
+	public double getAverageBatchSize() {
+		synchronized (progress) {
+			return batches == 0 ? 0 : (double) applied / batches;
+		}
+	}
+
+	/**
+	 * @return the largest number of strings applied in one batch.
+	 */
+	public long getLargestBatchSize() {
+		synchronized (progress) {
+			return largestBatch;
+		}
+	}
+
+	/**
+	 * @return the average time, in nanoseconds, between a string being queued
+	 *         and it being appended to the sequence.
+	 */
+	public long getAverageQueueNanos() {
+		synchronized (progress) {
+			return applied == 0 ? 0 : totalQueueNanos / applied;
+		}
+	}
+
+	/**
+	 * @return the longest time, in nanoseconds, that a string spent queued.
+	 */
+	public long getMaxQueueNanos() {
+		synchronized (progress) {
+			return maxQueueNanos;
+		}
+	}
+
+	/**
+	 * Register a producer and count its string as enqueued. The producer is
+	 * registered before closed is checked, so the drainer never exits while a
+	 * string that passed the check is still on its way into the queue.
+	 */
+	private void begin() {
+		writers.incrementAndGet();
+		if (closed) {
+			writers.decrementAndGet();
+			throw new IllegalStateException("SequenceWriter is closed.");
+		}
+		if (failure != null) {
+			writers.decrementAndGet();
+			throw failed();
+		}
+		synchronized (progress) {
+			enqueued++;
+		}
+	}
+
+	private void withdrawn() {
+		synchronized (progress) {
+			enqueued--;
+			progress.notifyAll();
+		}
+	}
+
+	private IllegalStateException failed() {
+		return new IllegalStateException("SequenceWriter failed to append.",
+				failure);
+	}
+
+	private void drain() {
+		Entry[] batch = new Entry[batchSize];
+		String[] values = new String[batchSize];
+		while (true) {
+			int count = collect(batch);
+			if (count > 0) {
+				apply(batch, values, count);
+			} else if (closed && writers.get() == 0 && queue.isEmpty()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Wait for the first string of a batch, then linger until the batch is full,
+	 * lingerNanos has passed or the writer is closed. An interrupt also ends
+	 * the wait; the strings collected so far are still returned.
+	 */
+	private int collect(Entry[] batch) {
+		int count = 0;
+		try {
+			Entry first = queue.poll(closed ? 1 : 100, TimeUnit.MILLISECONDS);
+			if (first == null || first == WAKE_UP) {
+				return 0;
+			}
+			batch[count++] = first;
+			long deadline = System.nanoTime() + lingerNanos;
+			while (count < batchSize) {
+				Entry next = queue.poll();
+				if (next == null) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0 || closed) {
+						break;
+					}
+					next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+				}
+				if (next == WAKE_UP) {
+					break;
+				}
+				batch[count++] = next;
+			}
+		} catch (InterruptedException e) {
+			// Nothing but close is meant to stop the drainer.
+		}
+		return count;
+	}
+
+	private void apply(Entry[] batch, String[] values, int count) {
+		long now = System.nanoTime();
+		long queueNanos = 0;
+		long maxNanos = 0;
+		for (int i = 0; i < count; i++) {
+			values[i] = batch[i].value;
+			long waited = now - batch[i].enqueuedAt;
+			queueNanos += waited;
+			maxNanos = Math.max(maxNanos, waited);
+			batch[i] = null;
+		}
+		if (failure == null) {
+			try {
+				synchronized (sequence) {
+					sequence.addAll(values, 0, count);
+				}
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+		Arrays.fill(values, 0, count, null);
+		if (failure != null) {
+			synchronized (progress) {
+				discarded += count;
+				progress.notifyAll();
+			}
+			return;
+		}
+		synchronized (progress) {
+			applied += count;
+			batches++;
+			largestBatch = Math.max(largestBatch, count);
+			totalQueueNanos += queueNanos;
+			maxQueueNanos = Math.max(maxQueueNanos, maxNanos);
+			progress.notifyAll();
+		}
+	}
+
+	/** Queued by close to end the drainer's linger; never appended. */
+	private static final Entry WAKE_UP = new Entry(null);
+
+	private static final class Entry {
+		final String value;
+		final long enqueuedAt;
+
+		Entry(String value) {
+			this.value = value;
+			this.enqueuedAt = System.nanoTime();
+		}
+	}
+}
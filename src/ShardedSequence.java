@@ -0,0 +1,660 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * A sequence of strings split into ordered shards, each a Sequence with its
+ * own lock, so that threads editing different parts of it do not wait for
+ * each other. Element i of the whole sequence is found by walking the shard
+ * sizes, which are kept outside the shards so that positions can be resolved
+ * without locking them.
+ *
+ * Positional operations lock only the shard they touch. Scans (count and
+ * indexOf) visit the shards in parallel on a ForkJoinPool. Operations that
+ * need the whole sequence at once (clone, equals, concatenation, toString and
+ * rebalancing) wait for edits in progress to finish and hold off new ones
+ * until they are done.
+ *
+ * When one shard grows to more than twice the average shard size, the
+ * elements are redistributed evenly over the shards.
+ *
+ * While other threads are editing, a position is resolved against the shard
+ * sizes at the time of the call, as with any list shared between threads: an
+ * edit made at the same moment before that position may shift where the
+ * operation lands by the number of elements it added or removed. Results of
+ * size, count and indexOf are likewise weakly consistent.
+ *
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class ShardedSequence implements Cloneable {
+	// ************************************************************************
+	// Invariant of the ShardedSequence class:
+	// (1) The elements of the sequence are the elements of shards[0], followed
+	// by those of shards[1], and so on.
+	// (2) While no edit is in progress, sizes.get(k * SIZE_STRIDE) ==
+	// shards[k].size() for every k; an edit updates it while it holds the
+	// monitor of shards[k].
+	// (3) Edits hold the read lock of structure and the monitor of their
+	// shard. shards is replaced, and shards are added, removed or
+	// redistributed, only while holding the write lock of structure.
+	// ************************************************************************
+	public static final int DEFAULT_SHARD_COUNT = 16;
+
+	// Shard sizes are kept one cache line apart, so that threads editing
+	// neighbouring shards do not invalidate each other's sizes.
+	private static final int SIZE_STRIDE = 16;
+	// Shards are not rebalanced while they are this small.
+	private static final int MIN_REBALANCE_SIZE = 1024;
+	private static final Object TIE_LOCK = new Object();
+
+	private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+	private final ForkJoinPool pool;
+	private Sequence[] shards;
+	private AtomicIntegerArray sizes;
+	private final AtomicLong rebalances = new AtomicLong();
+
+	/**
+	 * Initialize an empty sequence with DEFAULT_SHARD_COUNT shards whose scans
+	 * run on the common ForkJoinPool.
+	 */
+	public ShardedSequence() {
+		this(DEFAULT_SHARD_COUNT, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Initialize an empty sequence.
+	 *
+	 * @param shardCount
+	 *            the number of shards.
+	 * @param pool
+	 *            the pool that scans run on.
+	 * @exception IllegalArgumentException
+	 *                Indicates that shardCount is not positive.
+	 */
+	public ShardedSequence(int shardCount, ForkJoinPool pool) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("shardCount is not positive: "
+					+ shardCount);
+		}
+		Sequence[] empty = new Sequence[shardCount];
+		for (int k = 0; k < shardCount; k++)
+			empty[k] = new Sequence();
+		this.pool = pool;
+		install(empty);
+	}
+
+	private ShardedSequence(Sequence[] shards, ForkJoinPool pool) {
+		this.pool = pool;
+		install(shards);
+	}
+
+	/**
+	 * @return the number of elements in the sequence.
+	 */
+	public int size() {
+		structure.readLock().lock();
+		try {
+			int total = 0;
+			for (int k = 0; k < shards.length; k++)
+				total += sizes.get(k * SIZE_STRIDE);
+			return total;
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param index
+	 *            the position of an element.
+	 * @return the element at index.
+	 * @exception IndexOutOfBoundsException
+	 *                Indicates that index is negative or not smaller than
+	 *                size().
+	 */
+	public String get(int index) {
+		structure.readLock().lock();
+		try {
+			while (true) {
+				long location = locate(index, false);
+				Sequence shard = shards[(int) (location >>> 32)];
+				int offset = (int) location;
+				synchronized (shard) {
+					if (offset < shard.size())
+						return shard.elementAt(offset);
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Insert an element at a position, moving the elements from that position
+	 * on one place further.
+	 *
+	 * @param index
+	 *            the position of the new element; size() appends it.
+	 * @param value
+	 *            the string to insert.
+	 * @exception IndexOutOfBoundsException
+	 *                Indicates that index is negative or larger than size().
+	 */
+	public void add(int index, String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value is null");
+		}
+		int grown;
+		structure.readLock().lock();
+		try {
+			while (true) {
+				long location = locate(index, true);
+				int k = (int) (location >>> 32);
+				int offset = (int) location;
+				Sequence shard = shards[k];
+				synchronized (shard) {
+					if (offset <= shard.size()) {
+						shard.moveTo(offset);
+						if (offset < shard.size())
+							shard.addBefore(value);
+						else
+							shard.addAfter(value);
+						grown = shard.size();
+						sizes.set(k * SIZE_STRIDE, grown);
+						break;
+					}
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+		if (grown % MIN_REBALANCE_SIZE == 0)
+			rebalanceIfSkewed();
+	}
+
+	/**
+	 * Append an element to the end of the sequence.
+	 *
+	 * @param value
+	 *            the string to append.
+	 */
+	public void add(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value is null");
+		}
+		int grown;
+		structure.readLock().lock();
+		try {
+			int last = shards.length - 1;
+			Sequence shard = shards[last];
+			synchronized (shard) {
+				shard.moveTo(shard.size());
+				shard.addAfter(value);
+				grown = shard.size();
+				sizes.set(last * SIZE_STRIDE, grown);
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+		if (grown % MIN_REBALANCE_SIZE == 0)
+			rebalanceIfSkewed();
+	}
+
+	/**
+	 * Append strings to the end of the sequence.
+	 *
+	 * @param values
+	 *            the array holding the strings to append.
+	 * @param offset
+	 *            the index in values of the first string to append.
+	 * @param length
+	 *            the number of strings to append.
+	 */
+	public void addAll(String[] values, int offset, int length) {
+		structure.writeLock().lock();
+		try {
+			int last = shards.length - 1;
+			shards[last].addAll(values, offset, length);
+			sizes.set(last * SIZE_STRIDE, shards[last].size());
+		} finally {
+			structure.writeLock().unlock();
+		}
+		rebalanceIfSkewed();
+	}
+
+	/**
+	 * Remove the element at a position, moving the elements after it one
+	 * place back.
+	 *
+	 * @param index
+	 *            the position of the element to remove.
+	 * @return the removed element.
+	 * @exception IndexOutOfBoundsException
+	 *                Indicates that index is negative or not smaller than
+	 *                size().
+	 */
+	public String remove(int index) {
+		structure.readLock().lock();
+		try {
+			while (true) {
+				long location = locate(index, false);
+				int k = (int) (location >>> 32);
+				int offset = (int) location;
+				Sequence shard = shards[k];
+				synchronized (shard) {
+					if (offset < shard.size()) {
+						String removed = shard.elementAt(offset);
+						shard.moveTo(offset);
+						shard.removeCurrent();
+						sizes.set(k * SIZE_STRIDE, shard.size());
+						return removed;
+					}
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Count the elements that satisfy a condition, checking the shards in
+	 * parallel.
+	 *
+	 * @param filter
+	 *            the condition.
+	 * @return the number of elements for which filter returns true.
+	 */
+	public int count(Predicate<? super String> filter) {
+		structure.readLock().lock();
+		try {
+			return pool.invoke(new CountTask(shards, 0, shards.length, filter));
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the first occurrence of a string, searching the shards in parallel.
+	 *
+	 * @param value
+	 *            the string to look for.
+	 * @return the position of the first element equal to value, or -1 if there
+	 *         is none.
+	 */
+	public int indexOf(String value) {
+		structure.readLock().lock();
+		try {
+			int[] found = new int[shards.length];
+			pool.invoke(new IndexTask(shards, 0, shards.length, value, found));
+			int offset = 0;
+			for (int k = 0; k < shards.length; k++) {
+				if (found[k] >= 0)
+					return offset + found[k];
+				offset += sizes.get(k * SIZE_STRIDE);
+			}
+			return -1;
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Redistribute the elements evenly over the shards.
+	 */
+	public void rebalance() {
+		structure.writeLock().lock();
+		try {
+			redistribute(shards.length);
+		} finally {
+			structure.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of shards.
+	 */
+	public int getShardCount() {
+		structure.readLock().lock();
+		try {
+			return shards.length;
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of times the elements have been redistributed.
+	 */
+	public long getRebalanceCount() {
+		return rebalances.get();
+	}
+
+	/**
+	 * Make a copy of this sequence, shard by shard.
+	 *
+	 * @return the copy.
+	 */
+	public ShardedSequence clone() {
+		structure.writeLock().lock();
+		try {
+			return new ShardedSequence(cloneShards(), pool);
+		} finally {
+			structure.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Create a new sequence holding the shards of one sequence followed by the
+	 * shards of another. Each operand is copied as it is at one moment, but
+	 * the two are not copied at the same moment.
+	 *
+	 * @param s1
+	 *            the sequence whose elements should come first.
+	 * @param s2
+	 *            the sequence whose elements should come second.
+	 * @return the new sequence, with as many shards as s1 and s2 together,
+	 *         scanning on the pool of s1.
+	 */
+	public static ShardedSequence concatenation(ShardedSequence s1,
+			ShardedSequence s2) {
+		Sequence[] first;
+		s1.structure.writeLock().lock();
+		try {
+			first = s1.cloneShards();
+		} finally {
+			s1.structure.writeLock().unlock();
+		}
+		Sequence[] second;
+		s2.structure.writeLock().lock();
+		try {
+			second = s2.cloneShards();
+		} finally {
+			s2.structure.writeLock().unlock();
+		}
+		Sequence[] both = new Sequence[first.length + second.length];
+		System.arraycopy(first, 0, both, 0, first.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+		return new ShardedSequence(both, s1.pool);
+	}
+
+	/**
+	 * Checks whether another sequence holds the same elements in the same
+	 * order. How the elements are divided into shards does not matter.
+	 *
+	 * @param other
+	 *            the sequence to compare with.
+	 * @return true iff other holds the same elements in the same order.
+	 */
+	public boolean equals(ShardedSequence other) {
+		if (other == this)
+			return true;
+		// Lock in a fixed order, so that a.equals(b) and b.equals(a) running
+		// together cannot deadlock; the rare tie is broken by TIE_LOCK.
+		int thisHash = System.identityHashCode(this);
+		int otherHash = System.identityHashCode(other);
+		if (thisHash == otherHash) {
+			synchronized (TIE_LOCK) {
+				return lockedEquals(this, other);
+			}
+		}
+		return thisHash < otherHash ? lockedEquals(this, other)
+				: lockedEquals(other, this);
+	}
+
+	/**
+	 * @return true iff first and second hold the same elements, locking first
+	 *         and then second.
+	 */
+	private static boolean lockedEquals(ShardedSequence first,
+			ShardedSequence second) {
+		first.structure.writeLock().lock();
+		try {
+			second.structure.writeLock().lock();
+			try {
+				return sameElements(first.shards, second.shards);
+			} finally {
+				second.structure.writeLock().unlock();
+			}
+		} finally {
+			first.structure.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the elements of the sequence, as Sequence prints them, followed
+	 *         by the number of shards.
+	 */
+	public String toString() {
+		structure.writeLock().lock();
+		try {
+			StringBuilder builder = new StringBuilder("{");
+			boolean first = true;
+			for (Sequence shard : shards) {
+				for (int i = 0; i < shard.size(); i++) {
+					if (!first)
+						builder.append(", ");
+					builder.append(shard.elementAt(i));
+					first = false;
+				}
+			}
+			return builder.append("} (shards = ").append(shards.length)
+					.append(')').toString();
+		} finally {
+			structure.writeLock().unlock();
+		}
+	}
+
+	private void install(Sequence[] newShards) {
+		AtomicIntegerArray newSizes = new AtomicIntegerArray(newShards.length
+				* SIZE_STRIDE);
+		for (int k = 0; k < newShards.length; k++)
+			newSizes.set(k * SIZE_STRIDE, newShards[k].size());
+		shards = newShards;
+		sizes = newSizes;
+	}
+
+	/**
+	 * Find the shard holding a position and the position within it.
+	 *
+	 * @param index
+	 *            the position.
+	 * @param end
+	 *            whether index may be size(), the position after the last
+	 *            element.
+	 * @return the shard number in the high 32 bits and the position within
+	 *         the shard in the low 32 bits.
+	 * @precondition The read lock of structure is held.
+	 */
+	private long locate(int index, boolean end) {
+		if (index >= 0) {
+			int remaining = index;
+			for (int k = 0; k < shards.length; k++) {
+				int size = sizes.get(k * SIZE_STRIDE);
+				// A position between two shards is placed at the end of the
+				// first non-empty one; into an empty sequence, the last.
+				boolean after = end && remaining == size
+						&& (size > 0 || k == shards.length - 1);
+				if (remaining < size || after)
+					return ((long) k << 32) | remaining;
+				remaining -= size;
+			}
+		}
+		throw new IndexOutOfBoundsException("index: " + index + ", size: "
+				+ size());
+	}
+
+	private void rebalanceIfSkewed() {
+		structure.writeLock().lock();
+		try {
+			int total = 0;
+			int largest = 0;
+			for (Sequence shard : shards) {
+				total += shard.size();
+				largest = Math.max(largest, shard.size());
+			}
+			if (largest >= MIN_REBALANCE_SIZE
+					&& largest > 2 * (total / shards.length))
+				redistribute(shards.length);
+		} finally {
+			structure.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the shards with shardCount shards of nearly equal size.
+	 *
+	 * @precondition The write lock of structure is held.
+	 */
+	private void redistribute(int shardCount) {
+		int total = 0;
+		for (Sequence shard : shards)
+			total += shard.size();
+		String[] all = new String[total];
+		int n = 0;
+		for (Sequence shard : shards) {
+			for (int i = 0; i < shard.size(); i++)
+				all[n++] = shard.elementAt(i);
+		}
+		Sequence[] balanced = new Sequence[shardCount];
+		int from = 0;
+		for (int k = 0; k < shardCount; k++) {
+			int to = (int) ((long) total * (k + 1) / shardCount);
+			// Leave room to grow before the next rebalance.
+			balanced[k] = new Sequence((to - from) * 2 + 10);
+			balanced[k].addAll(all, from, to - from);
+			from = to;
+		}
+		install(balanced);
+		rebalances.incrementAndGet();
+	}
+
+	/**
+	 * @precondition The write lock of structure is held.
+	 */
+	private Sequence[] cloneShards() {
+		Sequence[] copies = new Sequence[shards.length];
+		for (int k = 0; k < shards.length; k++)
+			copies[k] = shards[k].clone();
+		return copies;
+	}
+
+	/**
+	 * @return true iff the shards of a and of b hold the same elements in the
+	 *         same order.
+	 */
+	private static boolean sameElements(Sequence[] a, Sequence[] b) {
+		int sizeA = 0;
+		for (Sequence shard : a)
+			sizeA += shard.size();
+		int sizeB = 0;
+		for (Sequence shard : b)
+			sizeB += shard.size();
+		if (sizeA != sizeB)
+			return false;
+		int shardA = 0;
+		int shardB = 0;
+		int i = 0;
+		int j = 0;
+		for (int compared = 0; compared < sizeA; compared++) {
+			while (i == a[shardA].size()) {
+				shardA++;
+				i = 0;
+			}
+			while (j == b[shardB].size()) {
+				shardB++;
+				j = 0;
+			}
+			if (!a[shardA].elementAt(i++).equals(b[shardB].elementAt(j++)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts matching elements in shards[from, to), splitting the range in
+	 * half until it is one shard.
+	 */
+	private static final class CountTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final Sequence[] shards;
+		private final int from;
+		private final int to;
+		private final Predicate<? super String> filter;
+
+		CountTask(Sequence[] shards, int from, int to,
+				Predicate<? super String> filter) {
+			this.shards = shards;
+			this.from = from;
+			this.to = to;
+			this.filter = filter;
+		}
+
+		protected Integer compute() {
+			if (to - from == 1) {
+				Sequence shard = shards[from];
+				int matches = 0;
+				synchronized (shard) {
+					for (int i = 0; i < shard.size(); i++) {
+						if (filter.test(shard.elementAt(i)))
+							matches++;
+					}
+				}
+				return matches;
+			}
+			int mid = (from + to) >>> 1;
+			CountTask left = new CountTask(shards, from, mid, filter);
+			left.fork();
+			int right = new CountTask(shards, mid, to, filter).compute();
+			return left.join() + right;
+		}
+	}
+
+	/**
+	 * Stores in found[k] the position within shards[k] of the first element
+	 * equal to value, or -1, for every k in [from, to).
+	 */
+	private static final class IndexTask extends RecursiveTask<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final Sequence[] shards;
+		private final int from;
+		private final int to;
+		private final String value;
+		private final int[] found;
+
+		IndexTask(Sequence[] shards, int from, int to, String value,
+				int[] found) {
+			this.shards = shards;
+			this.from = from;
+			this.to = to;
+			this.value = value;
+			this.found = found;
+		}
+
+		protected Void compute() {
+			if (to - from == 1) {
+				Sequence shard = shards[from];
+				found[from] = -1;
+				synchronized (shard) {
+					for (int i = 0; i < shard.size(); i++) {
+						if (shard.elementAt(i).equals(value)) {
+							found[from] = i;
+							break;
+						}
+					}
+				}
+				return null;
+			}
+			int mid = (from + to) >>> 1;
+			IndexTask left = new IndexTask(shards, from, mid, value, found);
+			left.fork();
+			new IndexTask(shards, mid, to, value, found).compute();
+			left.join();
+			return null;
+		}
+	}
+}
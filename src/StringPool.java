@@ -0,0 +1,152 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of canonical String instances, used to make sequences that
+ * hold many equal strings share one instance of each. A sequence routes the
+ * strings it is given through the pool set with Sequence.setInternPool.
+ * 
+ * The pool is split into segments, each guarded by its own lock, so threads
+ * interning different strings rarely wait for each other. Each segment holds
+ * at most its share of maxSize strings and evicts the least recently used
+ * string when it is full, so the pool never grows past maxSize. An evicted
+ * string stays valid in every sequence that holds it; it is just no longer
+ * handed out by the pool.
+ * 
+ * @author Nick Suarez-Canton Trueba
+ * @version 10/19/2026
+ */
+public class StringPool {
+	// ************************************************************************
+	// Invariant of the StringPool class:
+	// (1) A string lives in segment segments[spread(hashCode) & (length - 1)]
+	// and each segment maps a string to its canonical instance.
+	// (2) No segment holds more than segmentCapacity strings.
+	// ************************************************************************
+	private final Segment[] segments;
+	private final int segmentCapacity;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Initialize an empty pool.
+	 * 
+	 * @param maxSize
+	 *            the largest number of strings the pool keeps.
+	 * @exception IllegalArgumentException
+	 *                Indicates that maxSize is not positive.
+	 */
+	public StringPool(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize is not positive: "
+					+ maxSize);
+		}
+		int wanted = Math.min(maxSize,
+				Runtime.getRuntime().availableProcessors() * 4);
+		int count = Integer.highestOneBit(Math.max(1, wanted));
+		segments = new Segment[count];
+		segmentCapacity = Math.max(1, maxSize / count);
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Return the canonical instance of a string, adding value to the pool if
+	 * no equal string is in it.
+	 * 
+	 * @param value
+	 *            the string to intern.
+	 * @return a string equal to value, which is value itself the first time.
+	 */
+	public String intern(String value) {
+		int h = value.hashCode();
+		Segment segment = segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+		synchronized (segment) {
+			String canonical = segment.get(value);
+			if (canonical != null) {
+				hits.increment();
+				return canonical;
+			}
+			segment.put(value, value);
+		}
+		misses.increment();
+		return value;
+	}
+
+	/**
+	 * @return the number of strings in the pool.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Remove every string from the pool. The statistics are kept.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of intern calls that returned a pooled instance.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of intern calls that added their string to the pool.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of strings evicted to keep the pool within maxSize.
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the fraction of intern calls that were hits, or 0 if intern has
+	 *         not been called.
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * An access-ordered map that drops its least recently used string when it
+	 * grows past segmentCapacity.
+	 */
+	private final class Segment extends LinkedHashMap<String, String> {
+		private static final long serialVersionUID = 1L;
+
+		Segment() {
+			super(16, 0.75f, true);
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			if (size() > segmentCapacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}